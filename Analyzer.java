@@ -0,0 +1,203 @@
+/* Analyzer.java
+   Turns raw text into the list of terms that Javapedia searches on.
+   Text is lowercased, stripped of everything but letters, digits and
+   whitespace, split into words, and common words on the blacklist
+   are thrown away. Articles and search phrases go through the same
+   steps so that their terms can be compared.
+
+   All of this happens in a single pass over the characters. Each term
+   is built up in a reusable char buffer and handed to a TokenConsumer
+   as (buffer, length), so analyzing text creates no intermediate
+   Strings or arrays. Blacklisted words are found with a hashed lookup
+   on the buffer itself. An Analyzer holds its own buffer, so each
+   thread should use its own instance (see forThread()).
+ */
+
+import java.util.*;
+
+public class Analyzer {
+
+  /* TokenConsumer receives each term found by an Analyzer. The buffer is
+     reused for the next term, so a consumer that keeps the term must copy it.
+  */
+  public interface TokenConsumer {
+    void token(char[] buf, int len);
+  }
+
+  /* PositionConsumer receives each term along with its position: the
+     number of words before it in the text, counting blacklisted words,
+     so that "lord of the rings" puts "rings" 3 words after "lord".
+  */
+  public interface PositionConsumer {
+    void token(char[] buf, int len, int position);
+  }
+
+  private char[] buf = new char[32];
+
+  private static final ThreadLocal<Analyzer> perThread = new ThreadLocal<Analyzer>() {
+    protected Analyzer initialValue() {
+      return new Analyzer();
+    }
+  };
+
+  /* Returns an Analyzer that belongs to the calling thread */
+  public static Analyzer forThread() {
+    return perThread.get();
+  }
+
+  /* analyze passes each searchable term of s to the consumer, in order.
+     Letters and digits are lowercased into the buffer, whitespace ends a
+     term, and all other characters are dropped (so "don't" becomes "dont").
+
+     @param: s        The text to be broken up into terms
+     @param: consumer The TokenConsumer that receives the terms
+  */
+  public void analyze(CharSequence s, TokenConsumer consumer) {
+    run(s, consumer, null);
+  }
+
+  /* Same as previous, but also passes each term's position */
+  public void analyze(CharSequence s, PositionConsumer consumer) {
+    run(s, null, consumer);
+  }
+
+  private void run(CharSequence s, TokenConsumer terms, PositionConsumer positions) {
+    int len = 0;
+    int position = 0;
+    int n = s.length();
+    for (int i = 0; i < n; ++i) {
+      char c = s.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        if (len == buf.length)
+          buf = Arrays.copyOf(buf, 2 * len);
+        buf[len++] = Character.toLowerCase(c);
+      }
+      else if (Character.isWhitespace(c) && len > 0) {
+        emit(len, position++, terms, positions);
+        len = 0;
+      }
+    }
+    if (len > 0)
+      emit(len, position, terms, positions);
+  }
+
+  private void emit(int len, int position, TokenConsumer terms, PositionConsumer positions) {
+    if (stopwords.contains(buf, len))
+      return;
+    if (terms != null)
+      terms.token(buf, len);
+    else
+      positions.token(buf, len, position);
+  }
+
+  /* tokenize returns the searchable terms of a string, in order.
+
+     @param:  s     The string to be broken up into terms
+     @return: terms Array of terms that are not blacklisted
+  */
+  public static String[] tokenize(String s) {
+    final ArrayList<String> terms = new ArrayList<String>();
+    forThread().analyze(s, new TokenConsumer() {
+      public void token(char[] b, int len) {
+        terms.add(new String(b, 0, len));
+      }
+    });
+    return terms.toArray(new String[terms.size()]);
+  }
+
+  public static boolean blacklisted(String s) { //returns true if string is in blacklist
+    return stopwords.contains(s.toCharArray(), s.length());
+  }
+
+
+  /* CharSet is an open-addressing hash set of words that can be checked
+     directly against a char buffer, without making a String first.
+  */
+  private static class CharSet {
+    private final char[][] table;
+
+    CharSet(String[] words) {
+      int m = 1;
+      while (m < 4 * words.length) // keep the table at most a quarter full
+        m *= 2;
+      table = new char[m][];
+      for (String w : words) {
+        int i = hash(w.toCharArray(), w.length()) & (m - 1);
+        while (table[i] != null && !equal(table[i], w.toCharArray(), w.length()))
+          i = (i + 1) & (m - 1);   // linear probing
+        table[i] = w.toCharArray();
+      }
+    }
+
+    private static int hash(char[] b, int len) {
+      int h = 0;
+      for (int i = 0; i < len; ++i)
+        h = 31 * h + b[i];
+      return h ^ (h >>> 16);
+    }
+
+    private static boolean equal(char[] word, char[] b, int len) {
+      if (word.length != len)
+        return false;
+      for (int i = 0; i < len; ++i)
+        if (word[i] != b[i])
+          return false;
+      return true;
+    }
+
+    boolean contains(char[] b, int len) {
+      int m = table.length;
+      for (int i = hash(b, len) & (m - 1); table[i] != null; i = (i + 1) & (m - 1))
+        if (equal(table[i], b, len))
+          return true;
+      return false;
+    }
+  }
+
+
+ /*Blacklist common words that aren't used in cosine similairty computation  */
+  private static final String [] blackList = { "the", "of", "and", "a", "to", "in", "is",
+    "you", "that", "it", "he", "was", "for", "on", "are", "as", "with",
+    "his", "they", "i", "at", "be", "this", "have", "from", "or", "one",
+    "had", "by", "word", "but", "not", "what", "all", "were", "we", "when",
+    "your", "can", "said", "there", "use", "an", "each", "which", "she",
+    "do", "how", "their", "if", "will", "up", "other", "about", "out", "many",
+    "then", "them", "these", "so", "some", "her", "would", "make", "like",
+    "him", "into", "time", "has", "look", "two", "more", "write", "go", "see",
+    "number", "no", "way", "could", "people",  "my", "than", "first", "water",
+    "been", "call", "who", "oil", "its", "now", "find", "long", "down", "day",
+    "did", "get", "come", "made", "may", "part" };
+
+  private static final CharSet stopwords = new CharSet(blackList);
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) {
+    System.out.println("Testing tokenize, should be [cars, wheels, dont, rust, 1990s]:");
+    System.out.println(Arrays.toString(tokenize("  The Cars have WHEELS,\nthat don't rust\t(1990s)  ")));
+    System.out.println();
+
+    System.out.println("Testing blacklisted, should be true false:");
+    System.out.println(blacklisted("the") + " " + blacklisted("theme"));
+    System.out.println();
+
+    System.out.println("Testing analyze with a consumer, should count 3 terms and 19 chars:");
+    final int[] counts = new int[2];
+    forThread().analyze(new StringBuilder("Astronauts orbit the Moon"), new TokenConsumer() {
+      public void token(char[] b, int len) {
+        ++counts[0];
+        counts[1] += len;
+      }
+    });
+    System.out.println(counts[0] + " terms and " + counts[1] + " chars");
+    System.out.println();
+
+    System.out.println("Testing positions, should be lord@1 rings@4 return@6 (blacklisted words still count):");
+    forThread().analyze("The Lord of the Rings -- the return", new PositionConsumer() {
+      public void token(char[] b, int len, int position) {
+        System.out.print(new String(b, 0, len) + "@" + position + " ");
+      }
+    });
+    System.out.println();
+  }
+}
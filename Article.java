@@ -5,6 +5,7 @@
    Author: Jessica McAloon (mcaloonj@bu.edu)
  */
 
+import java.io.*;
 import java.util.*;
 
 public class Article implements Comparable<Article> {
@@ -13,6 +14,9 @@ public class Article implements Comparable<Article> {
     private String body;
     private String filename;
     public double cosineSimilarity = 0;
+    private TermVector vector;
+    private int[] signature;
+    private int docId = -1;        // id given by the InvertedIndex, -1 if not indexed
 
     public Article(String title, String body) {
         this.title = title;
@@ -20,6 +24,11 @@ public class Article implements Comparable<Article> {
 
     }
 
+    public Article(String title, String body, String filename) {
+        this(title, body);
+        this.filename = filename;
+    }
+
     public String getTitle() {
         return this.title;
     }
@@ -28,26 +37,70 @@ public class Article implements Comparable<Article> {
         return this.body;
     }
 
+    /* Returns the name of the file the article was read from, or null */
+    public String getFilename() {
+        return this.filename;
+    }
+
+    int getDocId() {
+        return docId;
+    }
+
+    void setDocId(int docId) {
+        this.docId = docId;
+    }
+
+    /* Sets an already computed term vector, e.g. one read from a snapshot */
+    void setVector(TermVector vector) {
+        this.vector = vector;
+    }
+
+    /* getVector returns the term vector of the article's body. It is built
+       the first time it is needed (when the article is indexed) and kept,
+       since the body never changes.
+    */
+    public TermVector getVector() {
+        if (vector == null)
+            vector = TermVector.of(body);
+        return vector;
+    }
+
+    /* getSignature returns the MinHash signature of the article's body,
+       used to find related articles (see MinHashIndex). Like the term
+       vector, it is computed once, when the article is indexed.
+    */
+    public int[] getSignature() {
+        if (signature == null)
+            signature = MinHashIndex.signature(getVector());
+        return signature;
+    }
+
 
 /* toString converts an article to a string and formats it.
    The title's article becomes underlined with equal signs,
-   and the cleanString function is called so that no line is more than
-   80 characters.
+   and the body is wrapped so that no line is more than
+   80 characters. See ArticleRenderer.
 
    @return: s The article as a string
 
 */
     public String toString() {
-        String t = getTitle();
-        String s = t +  "\n";
-
-        for (int i = 0; i < t.length(); i++)
-            s += "=";
+        StringBuilder sb = new StringBuilder(2 * title.length() + body.length() + body.length() / 16 + 16);
+        try {
+            render(sb);
+        } catch (IOException e) {   // a StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
 
-        s += "\n";
-        s += cleanString(getBody());
+    /* render writes the same text as toString to out, without building it
+       in memory first
 
-        return s;
+       @param: out Where the formatted article is written
+    */
+    public void render(Appendable out) throws IOException {
+        new ArticleRenderer().render(this, out);
     }
 
 
@@ -55,37 +108,4 @@ public class Article implements Comparable<Article> {
     public int compareTo(Article other) {
         return this.getTitle().compareTo(other.getTitle());
     }
-
-     /* cleanString inserts newline characters so that each line is
-        less than 80 characters long. It also replaces single line
-        breaks to double line breaks to represent new paragraphs.
-
-        @param: s   The string to be formatted
-        @param: out The formatted string
-
-     */
-    private String cleanString(String s) {
-        String out = "";
-        String[] lines = s.split("\r\n?|\n");
-
-        int cols = 0;
-        for (int i = 0; i < lines.length; i++) {
-            String[] words = lines[i].split(" ");
-
-            for (int j = 0; j < words.length; j++) {
-                if (cols + words[j].length() >= 80) {
-                    cols = words[j].length() + 1;
-                    out += "\n" + words[j] + " ";
-                } else {
-                    cols += words[j].length() + 1;
-                    out += words[j] + " ";
-                }
-            }
-
-            cols = 0;
-            out += "\n\n";
-        }
-
-        return out;
-    }
 }
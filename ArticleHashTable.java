@@ -1,10 +1,17 @@
- /*ArticleHashTable.java
+/*ArticleHashTable.java
  A class that inserts an array of articles into a separate-chaining hash table.
- Also creates a master linked list of all articles in the table.
+ Also creates a master linked list of all articles in the table, and keeps an
+ inverted index of the articles' terms up to date for phrase searches.
+
+ The table starts small and doubles its number of buckets whenever it holds more
+ than LOAD_FACTOR articles per bucket, so chains stay short as the database grows.
+ The master list is doubly linked, so deleting an article is O(1) once it is found.
  Author: Jessica McAloon (mcaloonj@bu.edu)
  */
 
-public class ArticleHashTable{
+import java.util.*;
+
+public class ArticleHashTable extends ArticleTable{
 
   /* Node class stores each article with its title as the key.
 
@@ -12,170 +19,191 @@ public class ArticleHashTable{
   @param next: The head of the linked list that the node is being appended to (when multiple
                 titles map to the same hash value)
 
-  The node "next2" represents the head of the master list of all articles that have been
-  inserted into the table.
+  The same node is also a link in the master list of all articles that have been
+  inserted into the table: "next2" points to the following (older) article and
+  "prev2" to the previous (newer) one.
   */
 
   private class Node {
     String key;
+    int h;        // spread hash code of key, kept so resizing never rehashes titles
     Article datum;
     Node next;
     Node next2;
+    Node prev2;
 
-   Node(Article datum, Node next) {
+   Node(Article datum, int h, Node next) {
       this.key = datum.getTitle();
+      this.h = h;
       this.datum = datum;
       this.next = next;
       this.next2 = null;
-    }
-
-   Node(Article datum) {
-      this(datum, null);
+      this.prev2 = null;
     }
   }
 
 
-  public void initialize(Article [] A) { // inserts an array of articles into ArticleHashTable
-    for(int i = 0; i < A.length; ++i)
-      insert(A[i]);
-  }
+  private static final int INITIAL_M = 16;        // starting number of buckets, always a power of 2
+  private static final double LOAD_FACTOR = 0.75; // articles per bucket allowed before doubling
 
+  private int M = INITIAL_M;
+  private int size = 0;                           // number of articles in the table
 
-  private final int M = 2503;
-
+  /* Returns the current number of buckets */
   public int getM(){
     return M;
   }
 
+  /* Returns the number of articles in the table */
+  public int size(){
+    return size;
+  }
+
   Node [] T = new Node[M];
 
 
-  /*takes sum of chars in the article's title, and returns sum % M
+  /* Spreads the title's String hash code so that its high bits also affect
+     the bucket, since only the low bits are used when M is a power of 2.
+     Unlike a sum of chars, anagrams such as "Cars" and "Cras" hash differently.
+     @param: title The title to be hashed
+     @return: integer hash code of the title
+  */
+  private static int spread (String title){
+    int h = title.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /* Returns the bucket of the article
     @param: a The Article object to be inserted into the table
     @return: integer representing the hash value of the article
   */
-  private int hash (Article a) { // takes sum of chars in the article's title, and returns sum % M
-    String s = a.getTitle();
-    char ch[];
-    ch = s.toCharArray();
-    int slength = s.length();
-
-    int i, sum;
-    for (sum=0, i=0; i < s.length(); i++)
-      sum += ch[i];
-    return sum % M;
+  private int hash (Article a) {
+    return hash(a.getTitle());
   }
 
   private int hash (String title){ // Same as previous, but takes string title as input
-    char ch[];
-    ch = title.toCharArray();
-    int titlelength = title.length();
-
-    int i, sum;
-    for (sum=0, i=0; i < title.length(); i++)
-      sum += ch[i];
-    return sum % M;
+    return spread(title) & (M - 1);
   }
 
 
   Node head = null;
 
-  /* Inserts an article into the Article Hash Table. Calls insertHelper to manipulate
-     the linked list at the index that the article hashes to.
+  /* Inserts an article into the Article Hash Table, at the front of the chain in
+     the bucket it hashes to and at the front of the master list. Doubles the
+     number of buckets first if the table is getting too full.
      @param: a   The Article object to be inserted
   */
 
   public void insert (Article a){
-    if (!member(a.getTitle())){ // if not already in table, insert to proper hash location
-      T[hash(a)] = insertHelper(a, T[hash(a)]);
-      Node temp = head;
-      head = new Node (a, head); // add article to front of master list
-      head.next2 = temp;       // update next2 to point to rest of master list
+    long start = Metrics.start();
+    if (lookupHelper(a.getTitle(), T[hash(a)]) == null){ // if not already in table, insert to proper hash location
+      if (size + 1 > LOAD_FACTOR * M)
+        resize(2 * M);
+
+      int h = spread(a.getTitle());
+      int i = h & (M - 1);
+      Node n = new Node(a, h, T[i]);
+      T[i] = n;
+
+      n.next2 = head;          // add article to front of master list
+      if (head != null)
+        head.prev2 = n;
+      head = n;
+
+      ++size;
+      getIndex().add(a);       // make the article's terms searchable
     }
+    Metrics.INSERT.recordSince(start);
   }
 
-/* insertHelper creates a new node with the article if it hashes to an index
-   with no linked list yet. Otherwise, it appends the article to the end of the linked list
-
-   @param: a The Article object to be inserted
-   @param: t The node or list of nodes at the index the article hashes to (null if none)
-
-*/
-  public Node insertHelper(Article a, Node t){
-    if (t == null) // if hash location is null, create a new node
-      t = new Node(a);
-    else{
-      for (Node p = t; p != null; p = p.next){ // else add it to the end
-        if (p.next == null){
-          p.next = new Node(a);
-          return t;
-        }
+  /* resize moves every node into a new array of buckets. The master list
+     is not touched, so iteration order is unchanged.
+     @param: newM The new number of buckets, a power of 2
+  */
+  private void resize(int newM){
+    Node [] newT = new Node[newM];
+    for (int i = 0; i < M; ++i){
+      Node p = T[i];
+      while (p != null){
+        Node next = p.next;
+        int j = p.h & (newM - 1);
+        p.next = newT[j];
+        newT[j] = p;
+        p = next;
       }
     }
-    return t;
+    T = newT;
+    M = newM;
   }
 
-  public void delete(String title) {
-    T[hash(title)] = deleteHelper(title, T[hash(title)]); // delete from proper hash location
-    head = deleteML(title, head);                         // delete from master list
-  }
-
-  private Node deleteHelper(String title, Node t){
-    if (t == null)                                   // if title not in table, do nothing
-      ;
-    else if (t.datum.getTitle().compareTo(title) == 0) // if title is in the first node, reassign next to delete
-      t = t.next;
-    else{
-      Node p;
-      Node q;
-      for (p = t, q = p; p != null; q = p, p = p.next){ // else, search for title in list using inchworm technique
-        String s = p.datum.getTitle();
-        if (s.compareTo(title) == 0)
-          q.next = p.next;
+  /* Replaces the article that has the same title as a, or inserts a if there is
+     none. The inverted index swaps the old version for the new one in one step.
+     @param: a The new version of the article
+  */
+  public void update (Article a){
+    long start = Metrics.start();
+    for (Node p = T[hash(a)]; p != null; p = p.next){
+      if (p.key.equals(a.getTitle())){
+        Article old = p.datum;
+        p.datum = a;
+        getIndex().update(old, a);
+        Metrics.UPDATE.recordSince(start);
+        return;
       }
     }
-    return t;
+    insert(a);
   }
 
-/* Given title, delete that article from master list of articles */
-  private Node deleteML(String title, Node t){
-    if (t == null) // do nothing if title is not in list
-      ;
-    else if ((t.datum.getTitle().compareTo(title) == 0))
-      head = head.next2; // if title is in the first node, reassign next2 to delete
-    else{                // else, search for title in list using inchworm technique
-      Node p;
-      Node q;
-      for (p = t, q = p; p != null; q = p, p = p.next2){
-        String s = p.datum.getTitle();
-        if (s.compareTo(title) == 0)
-          q.next2 = p.next2;
+  /* Deletes an article from the table, the master list and the inverted index.
+     Only the article's own chain is searched; unlinking from the master list is O(1).
+     @param: title The title of the article to be deleted
+  */
+  public void delete(String title) {
+    long start = Metrics.start();
+    int i = hash(title);
+    Node q = null;
+    for (Node p = T[i]; p != null; q = p, p = p.next){ // search for title in chain using inchworm technique
+      if (p.key.equals(title)){
+        if (q == null)                                  // unlink from chain
+          T[i] = p.next;
+        else
+          q.next = p.next;
+
+        if (p.prev2 == null)                            // unlink from master list
+          head = p.next2;
+        else
+          p.prev2.next2 = p.next2;
+        if (p.next2 != null)
+          p.next2.prev2 = p.prev2;
+        if (pointer == p)                               // keep an iteration in progress valid
+          pointer = p.next2;
+
+        --size;
+        getIndex().remove(p.datum);                     // delete from inverted index
+        break;
       }
     }
-    return head;
+    Metrics.DELETE.recordSince(start);
   }
 
 
   public Article lookup(String title) {
-    return lookupHelper (title, T[hash(title)]);
-
+    long start = Metrics.start();
+    Article a = lookupHelper (title, T[hash(title)]);
+    Metrics.LOOKUP.recordSince(start);
+    return a;
   }
 
   private Article lookupHelper(String title, Node t) {
     if (t == null) // if hash location is empty, return null
       return null;
     for (Node p = t; p != null;p = p.next){ // else, search through LL and return the node's datum when found
-      String s = p.datum.getTitle();
-      if (s.compareTo(title) == 0)
+      if (p.key.equals(title))
         return p.datum;
     }
     return null;                            // return null if not found
   }
 
-  public boolean member (String title){
-    return (lookup(title) != null);
-  }
-
   //Iterator methods
   Node pointer = head;
 
@@ -193,6 +221,29 @@ public class ArticleHashTable{
     return q.datum;
   }
 
+  /* iterator returns an iterator over the master list with its own pointer, so
+     several iterations can be in progress at once (from one thread at a time).
+     Deleted nodes keep their next2 link, so deleting the article just returned
+     does not break the iteration.
+  */
+  public Iterator<Article> iterator(){
+    return new Iterator<Article>(){
+      Node p = head;
+
+      public boolean hasNext(){
+        return p != null;
+      }
+
+      public Article next(){
+        if (p == null)
+          throw new NoSuchElementException();
+        Article a = p.datum;
+        p = p.next2;
+        return a;
+      }
+    };
+  }
+
 
 /* Main method with unit tests */
   public static void main(String[] args) {
@@ -213,7 +264,7 @@ public class ArticleHashTable{
     System.out.println("Beatles hashes to " +Table.hash(Beatles));
     System.out.println();
 
-    System.out.println("Should hash to same location:");
+    System.out.println("Anagrams should hash to different locations:");
     System.out.println("Article 1 hashes to " +Table.hash(Cars));
     System.out.println("Article 2 hashes to " + Table.hash(Cras));
     System.out.println();
@@ -224,7 +275,7 @@ public class ArticleHashTable{
     System.out.println("Cars hashes to " +Table.hash("Cars"));
     System.out.println("The Beatles hashes to " +Table.hash("The Beatles"));
     System.out.println();
-    System.out.println("Should hash to same location:");
+    System.out.println("Anagrams should hash to different locations:");
     System.out.println("Cars hashes to " +Table.hash("Cars"));
     System.out.println("Cras hashes to " + Table.hash("Cras"));
     System.out.println();
@@ -284,6 +335,27 @@ public class ArticleHashTable{
 
     Table.delete("Cras");
 
+    System.out.println("Testing resize: inserting 10000 articles, should have 16384 buckets and find all of them:");
+    ArticleHashTable Big = new ArticleHashTable();
+    for (int i = 0; i < 10000; ++i)
+      Big.insert(new Article("Article " + i, "body " + i));
+    int found = 0;
+    for (int i = 0; i < 10000; ++i)
+      if (Big.member("Article " + i))
+        ++found;
+    System.out.println(Big.getM() + " buckets, found " + found + "\n");
+
+    System.out.println("Testing delete from master list: deleting every even article, should iterate over 5000:");
+    for (int i = 0; i < 10000; i += 2)
+      Big.delete("Article " + i);
+    int count = 0;
+    Big.reset();
+    while (Big.hasNext()) {
+      Big.next();
+      ++count;
+    }
+    System.out.println(count + " articles, size() is " + Big.size() + "\n");
+
     System.out.println("Testing iterator: Should print Articles A-E in reverse order");
 
     Article A1 = new Article("A", "Article 1");
@@ -308,7 +380,13 @@ public class ArticleHashTable{
       System.out.println(a);
 }
 
-
+    System.out.println("Testing the search cache, should be 1 hit, then a miss after insert that finds Trucks:");
+    Javapedia.phraseSearch("wheels", Table);
+    Javapedia.phraseSearch("Wheels!", Table);
+    System.out.println(Table.getCache());
+    Table.insert(new Article("Trucks", "Trucks have wheels"));
+    String results = Javapedia.phraseSearch("wheels", Table);
+    System.out.println(Table.getCache() + ", found Trucks: " + results.contains("Trucks"));
 
   }
 }
@@ -0,0 +1,605 @@
+/* ArticleLog.java
+   A write-ahead log that makes articles added or removed while Javapedia
+   runs survive a restart, without rewriting article files on every change.
+
+   Each change is appended to the log file as one record before the call
+   returns, and replayed on top of the articles directory (or snapshot) at
+   the next start. Compaction writes the changed articles back into the
+   directory as ordinary files, deletes the files of removed ones, and then
+   empties the log.
+
+   Group commit: a change is added to an in-memory buffer and applied to
+   the table, and the caller then waits until the buffer has been written
+   and forced to disk. Whichever thread forces the file writes everything
+   buffered so far, so while one fsync is in progress the changes of other
+   threads pile up and share the next one. A single user pays one fsync
+   per change; many concurrent clients pay far fewer than one each.
+   Buffered changes are only dropped from memory once they have been
+   forced. If writing or forcing fails, every change waiting on that
+   batch fails with the exception, the file is cut back to its last good
+   length so no torn record is left for replay, and the log refuses
+   further changes until it is compacted.
+
+   Changes to the same title are applied in log order: a change holds one
+   of STRIPES locks, chosen by the title's hash, while it is buffered and
+   applied. Changes to other titles run in parallel.
+
+   Record layout (all integers big-endian):
+     int length, then length bytes:
+       byte ADD,    string title, string filename, string body
+       byte DELETE, string title
+     int CRC32 of those length bytes
+   where a string is as in CorpusSnapshot. A record cut short by a crash,
+   or whose checksum does not match, ends the log; replay truncates it.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.zip.CRC32;
+
+public class ArticleLog implements Closeable {
+
+  private static final byte ADD = 1;
+  private static final byte DELETE = 2;
+  private static final int STRIPES = 64;                 // number of title locks, a power of 2
+  private static final long COMPACT_BYTES = 4 << 20;     // log size at which the compactor writes it back
+
+  private final Path path;
+  private final String dir;
+  private final FileChannel channel;
+  private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+  // changes not yet forced to disk; guarded by this
+  private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+  private long appended = 0;     // changes buffered so far
+  private long size;             // bytes in the file plus the buffer
+
+  private final Object syncLock = new Object();  // held while writing and forcing the file
+  private volatile long synced = 0;              // changes forced to disk so far
+  private long durable;                          // bytes of the file forced to disk; guarded by syncLock
+  private volatile IOException failure;          // why the last write failed, null if none
+  private long syncs = 0;
+
+  // what compaction has to write back; guarded by this
+  private final Set<String> dirty = new HashSet<String>();      // titles added or replaced
+  private final Set<String> removed = new HashSet<String>();    // files of removed articles
+  private final Set<String> unwritten = new HashSet<String>();  // files of articles only in the log so far
+  private Set<String> owned;     // lowercased file names of the table's articles and of names given out
+
+  private ScheduledExecutorService compactor;
+
+  /* @param: path The pathname of the log file, created if missing
+     @param: dir  The articles directory that compaction writes to
+  */
+  public ArticleLog(String path, String dir) throws IOException {
+    this.path = Paths.get(path);
+    this.dir = dir;
+    this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+    this.size = channel.size();
+    this.durable = size;
+    for (int i = 0; i < STRIPES; ++i)
+      locks[i] = new ReentrantLock();
+  }
+
+  /* replay applies every change in the log to a table, in the order they
+     were made. It must be called once, before any new change, with the
+     table loaded from the directory. A damaged tail is cut off.
+
+     @param:  T The table to apply the changes to
+     @return:   The number of changes replayed
+  */
+  public int replay(ArticleTable T) throws IOException {
+    long length = channel.size();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+      Channels.newInputStream(channel.position(0)), 1 << 16));
+    long good = 0;
+    int count = 0;
+    while (good + 8 <= length) {
+      int n = in.readInt();
+      if (n < 1 || good + 8 + n > length)   // cut short
+        break;
+      byte[] record = new byte[n];
+      in.readFully(record);
+      if (in.readInt() != checksum(record)) // damaged
+        break;
+      apply(T, record);
+      good += 8 + n;
+      ++count;
+    }
+    if (good < length) {
+      channel.truncate(good);
+      channel.force(true);
+    }
+    channel.position(good);
+    synchronized (syncLock) {
+      durable = good;
+    }
+    size = good;
+    return count;
+  }
+
+  /* update adds or replaces an article and returns once the change is on
+     disk. A new article is given a file name in the directory that no
+     other article or file has; one that replaces another keeps the old
+     file's name. If the change cannot be
+     written, an IOException is thrown; the article is then in the table
+     but only reaches the directory if the log is compacted.
+
+     @param:  T The table to change
+     @param:  a The new version of the article
+     @return:   The article as stored in the table
+  */
+  public Article update(ArticleTable T, Article a) throws IOException {
+    long seq;
+    Article stored;
+    ReentrantLock l = lockFor(a.getTitle());
+    l.lock();
+    try {
+      Article old = T.lookup(a.getTitle());
+      String filename = (old != null && old.getFilename() != null) ? old.getFilename()
+                                                                 : newFilename(T, a.getTitle());
+      if (old == null || old.getFilename() == null) {
+        synchronized (this) {
+          unwritten.add(filename);
+        }
+      }
+      stored = new Article(a.getTitle(), a.getBody(), filename);
+      seq = append(ADD, stored.getTitle(), filename, stored.getBody());
+      T.update(stored);
+    } finally {
+      l.unlock();
+    }
+    sync(seq);
+    return stored;
+  }
+
+  /* delete removes an article and returns once the change is on disk
+
+     @param:  T     The table to change
+     @param:  title The title of the article to be removed
+     @return:       false if there was no such article, so nothing was logged
+  */
+  public boolean delete(ArticleTable T, String title) throws IOException {
+    long seq;
+    ReentrantLock l = lockFor(title);
+    l.lock();
+    try {
+      if (!T.member(title))
+        return false;
+      seq = append(DELETE, title, null, null);
+      remove(T, title);
+    } finally {
+      l.unlock();
+    }
+    sync(seq);
+    return true;
+  }
+
+  private ReentrantLock lockFor(String title) {
+    int h = title.hashCode();
+    return locks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+  }
+
+  /* Encodes a record into the buffer and returns its sequence number */
+  private long append(byte type, String title, String filename, String body) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + ((body == null) ? 0 : body.length()));
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(type);
+    CorpusSnapshot.writeString(out, title);
+    if (type == ADD) {
+      CorpusSnapshot.writeString(out, filename);
+      CorpusSnapshot.writeString(out, body);
+    }
+    byte[] record = bytes.toByteArray();
+
+    synchronized (this) {
+      if (failure != null)
+        throw new IOException("log " + path + " is unusable after a failed write", failure);
+      DataOutputStream b = new DataOutputStream(buffer);
+      b.writeInt(record.length);
+      b.write(record);
+      b.writeInt(checksum(record));
+      size += 8 + record.length;
+      if (type == ADD)
+        dirty.add(title);
+      return ++appended;
+    }
+  }
+
+  /* sync returns once change seq is on disk, writing and forcing
+     everything buffered if no other thread already has. The batch is
+     written at the end of what is known to be on disk and stays in the
+     buffer until it has been forced, so a failed attempt loses nothing
+     that was acknowledged and leaves nothing half written in the file.
+  */
+  private void sync(long seq) throws IOException {
+    if (synced >= seq)
+      return;
+    synchronized (syncLock) {
+      if (synced >= seq)           // forced by the thread that held the lock
+        return;
+      if (failure != null)         // seq was in a batch that could not be written
+        throw new IOException("could not write to " + path, failure);
+      long start = Metrics.start();
+      byte[] batch;
+      long upTo;
+      synchronized (this) {
+        batch = buffer.toByteArray();
+        upTo = appended;
+      }
+      try {
+        ByteBuffer b = ByteBuffer.wrap(batch);
+        long at = durable;
+        while (b.hasRemaining())
+          at += channel.write(b, at);
+        channel.force(false);
+      } catch (IOException e) {
+        failure = e;
+        try {
+          channel.truncate(durable);   // no torn record for replay to stop at
+        } catch (IOException ignored) {
+          // replay cuts off whatever is left after the last good record
+        }
+        throw e;
+      }
+      synchronized (this) {
+        byte[] rest = buffer.toByteArray();  // changes buffered while this batch was written
+        buffer = new ByteArrayOutputStream(Math.max(32, rest.length - batch.length));
+        buffer.write(rest, batch.length, rest.length - batch.length);
+      }
+      durable += batch.length;
+      synced = upTo;
+      ++syncs;
+      Metrics.LOG_SYNC.recordSince(start);
+    }
+  }
+
+  /* Applies one record read back from the file */
+  private void apply(ArticleTable T, byte[] record) throws IOException {
+    ByteBuffer buf = ByteBuffer.wrap(record);
+    byte type = buf.get();
+    String title = CorpusSnapshot.readString(buf);
+    if (type == ADD) {
+      String filename = CorpusSnapshot.readString(buf);
+      String body = CorpusSnapshot.readString(buf);
+      boolean added = T.lookup(title) == null;   // not loaded from the directory, so not written yet
+      T.update(new Article(title, body, filename));
+      synchronized (this) {
+        dirty.add(title);
+        if (added)
+          unwritten.add(filename);
+      }
+    } else if (type == DELETE) {
+      remove(T, title);
+    } else {
+      throw new IOException("unknown record type " + type + " in " + path);
+    }
+  }
+
+  /* Deletes an article, remembering its file for compaction unless the
+     article never reached the directory: a file by that name is then some
+     other program's, and must be left alone
+  */
+  private void remove(ArticleTable T, String title) {
+    Article old = T.lookup(title);
+    if (old == null)
+      return;
+    T.delete(title);
+    synchronized (this) {
+      dirty.remove(title);
+      if (old.getFilename() != null && !unwritten.remove(old.getFilename()))
+        removed.add(old.getFilename());
+    }
+  }
+
+  /* compact writes every article changed since the last compaction back
+     to the directory, deletes the files of removed articles, and empties
+     the log. Changes wait while it runs. Each file is written under a
+     temporary name, forced to disk and moved into place before the log is
+     emptied, so a crash at any point loses nothing: replaying a change that
+     is already in the directory does no harm.
+
+     @param:  T The table the changes were made to
+     @return:   The number of files written or deleted; a removed
+                article's file that was already gone is not counted
+  */
+  public int compact(ArticleTable T) throws IOException {
+    for (ReentrantLock l : locks)
+      l.lock();
+    try {
+      synchronized (syncLock) {
+        List<Article> changed = new ArrayList<Article>();
+        Set<String> gone;
+        synchronized (this) {
+          for (String title : dirty) {
+            Article a = T.lookup(title);
+            if (a != null)
+              changed.add(a);
+          }
+          gone = new HashSet<String>(removed);
+        }
+
+        Path directory = Paths.get(dir);
+        for (Article a : changed) {
+          writeFile(directory.resolve(a.getFilename()), a);
+          gone.remove(a.getFilename());  // a removed article's file now holds a new one
+        }
+        int deleted = 0;
+        for (String filename : gone)
+          if (Files.deleteIfExists(directory.resolve(filename)))
+            ++deleted;
+
+        synchronized (this) {
+          channel.truncate(0);
+          channel.position(0);
+          channel.force(true);
+          buffer.reset();
+          synced = appended;
+          durable = 0;
+          failure = null;   // everything in the table is now in the directory
+          size = 0;
+          dirty.clear();
+          removed.clear();
+          unwritten.clear();
+        }
+        return changed.size() + deleted;
+      }
+    } finally {
+      for (ReentrantLock l : locks)
+        l.unlock();
+    }
+  }
+
+  /* Writes an article file the way CorpusLoader reads it: the title, then the body */
+  private static void writeFile(Path target, Article a) throws IOException {
+    Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+    byte[] text = (a.getTitle() + "\n" + a.getBody()).getBytes(StandardCharsets.UTF_8);
+    FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      ByteBuffer b = ByteBuffer.wrap(text);
+      while (b.hasRemaining())
+        out.write(b);
+      out.force(true);
+    } finally {
+      out.close();
+    }
+    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /* filenameFor turns a title into a file name like those in the articles
+     directory: the title followed by ".txt", with characters that are not
+     allowed in file names written as %XX
+
+     @param:  title The title of the article
+     @return:       The name of the file to store it in
+  */
+  static String filenameFor(String title) {
+    StringBuilder sb = new StringBuilder(title.length() + 4);
+    for (int i = 0; i < title.length(); ++i) {
+      char c = title.charAt(i);
+      if (c < 0x20 || "/\\%:*?\"<>|".indexOf(c) >= 0 || (i == 0 && c == '.'))
+        sb.append('%').append(String.format("%02X", (int) c));
+      else
+        sb.append(c);
+    }
+    return sb.append(".txt").toString();
+  }
+
+  /* newFilename picks the file for a new article: filenameFor(title), or
+     that name with " (2)", " (3)"... before ".txt" if another article
+     already owns it or a file by that name exists. Different titles can
+     map to the same name (the bundled "BielBienne, Switzerland.txt" holds
+     "Biel/Bienne, Switzerland"), and names are compared ignoring case, for
+     case-insensitive file systems. Names given out are never reused.
+  */
+  private synchronized String newFilename(ArticleTable T, String title) {
+    if (owned == null) {
+      owned = new HashSet<String>();
+      for (Article a : T)
+        if (a.getFilename() != null)
+          owned.add(a.getFilename().toLowerCase(Locale.ROOT));
+    }
+    String base = filenameFor(title);
+    String name = base;
+    Path directory = Paths.get(dir);
+    for (int n = 2; owned.contains(name.toLowerCase(Locale.ROOT)) || Files.exists(directory.resolve(name)); ++n)
+      name = base.substring(0, base.length() - ".txt".length()) + " (" + n + ").txt";
+    owned.add(name.toLowerCase(Locale.ROOT));
+    return name;
+  }
+
+  private static int checksum(byte[] record) {
+    CRC32 crc = new CRC32();
+    crc.update(record, 0, record.length);
+    return (int) crc.getValue();
+  }
+
+  /* startCompactor compacts the log in the background whenever it has
+     grown past COMPACT_BYTES, checking every period seconds
+
+     @param: T      The table the changes are made to
+     @param: period Seconds between checks
+  */
+  public synchronized void startCompactor(final ArticleTable T, long period) {
+    if (compactor != null)
+      return;
+    compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "article-log-compactor");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    compactor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          if (size() > COMPACT_BYTES)
+            compact(T);
+        } catch (IOException e) {
+          System.err.println("Could not compact " + path + ": " + e.getMessage());
+        }
+      }
+    }, period, period, TimeUnit.SECONDS);
+  }
+
+  /* Returns the size of the log in bytes, including changes not yet on disk */
+  public synchronized long size() {
+    return size;
+  }
+
+  /* Returns the number of times the log has been forced to disk */
+  public long getSyncs() {
+    synchronized (syncLock) {
+      return syncs;
+    }
+  }
+
+  /* Stops the compactor and closes the file. Changes already made are on disk. */
+  public void close() throws IOException {
+    synchronized (this) {
+      if (compactor != null)
+        compactor.shutdownNow();
+    }
+    synchronized (syncLock) {
+      channel.close();
+    }
+  }
+
+  public synchronized String toString() {
+    return "log: " + appended + " changes, " + getSyncs() + " syncs, " + size + " bytes";
+  }
+
+
+  /* Main method with unit tests, run in a temporary directory */
+  public static void main(String[] args) throws Exception {
+    Path tmp = Files.createTempDirectory("javapedia-log");
+    Path articles = Files.createDirectory(tmp.resolve("articles"));
+    Files.write(articles.resolve("Cars.txt"), "Cars\nCars have wheels\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(articles.resolve("Boats.txt"), "Boats\nBoats float\n".getBytes(StandardCharsets.UTF_8));
+    String logPath = tmp.resolve("articles.log").toString();
+
+    try {
+      ArticleHashTable T = new ArticleHashTable();
+      T.initialize(CorpusLoader.load(articles.toString()));
+      ArticleLog log = new ArticleLog(logPath, articles.toString());
+      System.out.println("Testing replay of an empty log, should be 0:");
+      System.out.println(log.replay(T));
+      log.update(T, new Article("Trucks", "Trucks have big wheels\n"));
+      log.update(T, new Article("Cars", "Cars have four wheels\n"));
+      log.delete(T, "Boats");
+      System.out.println("Testing filenameFor, should be AC%2FDC.txt and %2Ehidden.txt:");
+      System.out.println(filenameFor("AC/DC") + " " + filenameFor(".hidden"));
+      System.out.println("Testing delete of a missing article, should be false:");
+      System.out.println(log.delete(T, "Planes"));
+      log.close();
+
+      System.out.println("Testing replay after a restart, should be 3 changes, Trucks, four wheels, no Boats:");
+      ArticleHashTable R = new ArticleHashTable();
+      R.initialize(CorpusLoader.load(articles.toString()));
+      log = new ArticleLog(logPath, articles.toString());
+      System.out.println(log.replay(R) + " changes, " + R.member("Trucks") + ", " +
+                         R.lookup("Cars").getBody().contains("four") + ", " + !R.member("Boats"));
+
+      System.out.println("Testing a torn tail, should replay 3 and cut the log back to its old size:");
+      long before = Files.size(Paths.get(logPath));
+      log.close();
+      Files.write(Paths.get(logPath), new byte[] { 0, 0, 0, 40, ADD, 0 }, StandardOpenOption.APPEND);
+      R = new ArticleHashTable();
+      R.initialize(CorpusLoader.load(articles.toString()));
+      log = new ArticleLog(logPath, articles.toString());
+      System.out.println(log.replay(R) + ", " + (Files.size(Paths.get(logPath)) == before));
+
+      System.out.println("Testing compact, should be 3 files (2 written, Boats deleted) and an empty log:");
+      int files = log.compact(R);
+      String[] names = articles.toFile().list();
+      Arrays.sort(names);
+      System.out.println(files + " files, directory " + Arrays.toString(names) + ", log " + log.size() + " bytes");
+      ArticleHashTable C = new ArticleHashTable();
+      C.initialize(CorpusLoader.load(articles.toString()));
+      System.out.println("reloaded: " + C.size() + " articles, Cars has four wheels: " +
+                         C.lookup("Cars").getBody().contains("four"));
+
+      System.out.println("Testing group commit: 8 threads x 200 changes, should all be replayed, with fewer syncs:");
+      final ConcurrentArticleHashTable S = new ConcurrentArticleHashTable();
+      final ArticleLog shared = log;
+      ExecutorService pool = Executors.newFixedThreadPool(8);
+      List<Future<?>> done = new ArrayList<Future<?>>();
+      for (int t = 0; t < 8; ++t) {
+        final int thread = t;
+        done.add(pool.submit(new Callable<Void>() {
+          public Void call() throws IOException {
+            for (int i = 0; i < 200; ++i)
+              shared.update(S, new Article("Article " + thread + "-" + i, "body " + i + "\n"));
+            return null;
+          }
+        }));
+      }
+      for (Future<?> f : done)
+        f.get();
+      pool.shutdown();
+      long syncs = shared.getSyncs();
+      shared.close();
+      ArticleHashTable G = new ArticleHashTable();
+      log = new ArticleLog(logPath, articles.toString());
+      System.out.println(log.replay(G) + " replayed, fewer syncs than changes: " + (syncs < 1600));
+      log.close();
+
+      System.out.println("Testing a failed write, should be failed, then refused and not applied, then replay 1:");
+      Files.delete(Paths.get(logPath));
+      ArticleHashTable F = new ArticleHashTable();
+      log = new ArticleLog(logPath, articles.toString());
+      log.replay(F);
+      log.update(F, new Article("Kept", "on disk\n"));
+      log.channel.close();     // every write from now on fails
+      String first = "written", second = "written";
+      try {
+        log.update(F, new Article("Lost", "never written\n"));
+      } catch (IOException e) {
+        first = "failed";
+      }
+      try {
+        log.update(F, new Article("Refused", "not applied\n"));
+      } catch (IOException e) {
+        second = "refused";
+      }
+      ArticleLog reopened = new ArticleLog(logPath, articles.toString());
+      System.out.println(first + ", " + second + ", in table: " + F.member("Refused") + ", replayed " +
+                         reopened.replay(new ArticleHashTable()));
+      reopened.close();
+      log.close();
+
+      // in a directory and log of their own, so the changes above keep their counts
+      System.out.println("Testing names already taken, should be BielBienne (2).txt and cars (2).txt:");
+      Path named = Files.createDirectory(tmp.resolve("named"));
+      Files.write(named.resolve("Cars.txt"), "Cars\nCars have wheels\n".getBytes(StandardCharsets.UTF_8));
+      Files.write(named.resolve("BielBienne.txt"), "Biel/Bienne\nA town\n".getBytes(StandardCharsets.UTF_8));
+      ArticleHashTable N = new ArticleHashTable();
+      N.initialize(CorpusLoader.load(named.toString()));
+      log = new ArticleLog(tmp.resolve("named.log").toString(), named.toString());
+      System.out.println(log.update(N, new Article("BielBienne", "Not the town\n")).getFilename() + " and " +
+                         log.update(N, new Article("cars", "lowercase\n")).getFilename());
+
+      System.out.println("Testing compact after deleting both, should be 0 files and another program's file kept:");
+      log.delete(N, "BielBienne");
+      log.delete(N, "cars");
+      Files.write(named.resolve("cars (2).txt"), "Someone else's\n".getBytes(StandardCharsets.UTF_8));
+      System.out.println(log.compact(N) + " files, kept: " + Files.exists(named.resolve("cars (2).txt")));
+      log.close();
+    } finally {
+      Files.walk(tmp).sorted(Comparator.reverseOrder()).forEach(new java.util.function.Consumer<Path>() {
+        public void accept(Path p) {
+          p.toFile().delete();
+        }
+      });
+    }
+  }
+}
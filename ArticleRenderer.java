@@ -0,0 +1,282 @@
+/* ArticleRenderer.java
+   Formats an article for display and writes it straight to a Writer,
+   StringBuilder or any other Appendable: the title, underlined with equal
+   signs, then the body with every line of text wrapped at 80 columns and
+   followed by a blank line.
+
+   The body is scanned once and each word is copied from it directly, so
+   rendering costs O(length of the body) and creates no intermediate
+   Strings, however long the article is.
+
+   A renderer can also stop after a number of lines (truncation), or call a
+   Pager after every page of lines, which may wait for the reader or stop
+   the rendering. A renderer keeps its position while rendering, so each
+   thread should use its own; they are cheap to create.
+ */
+
+import java.io.*;
+
+public class ArticleRenderer {
+
+  /* Pager is called after every page of lines */
+  public interface Pager {
+    /* Returns true to go on to the next page, or false to stop */
+    boolean nextPage(Appendable out) throws IOException;
+  }
+
+  public static final String TRUNCATED = "[...]\n";  // written when maxLines cuts an article short
+
+  private final int width;
+  private int maxLines = Integer.MAX_VALUE;
+  private int pageLines = Integer.MAX_VALUE;
+  private Pager pager;
+
+  // position within the article being rendered
+  private Appendable out;
+  private int lines;
+  private boolean full;      // maxLines lines were written, so anything more is cut
+  private boolean stopped;
+
+  public ArticleRenderer() {
+    this(80);
+  }
+
+  /* @param: width Lines are wrapped before reaching this many columns */
+  public ArticleRenderer(int width) {
+    if (width < 1)
+      throw new IllegalArgumentException("width must be at least 1");
+    this.width = width;
+  }
+
+  /* Stops each article after maxLines lines and writes TRUNCATED instead of
+     the rest. An article of exactly maxLines lines is written whole.
+  */
+  public ArticleRenderer setMaxLines(int maxLines) {
+    if (maxLines < 1)
+      throw new IllegalArgumentException("maxLines must be at least 1");
+    this.maxLines = maxLines;
+    return this;
+  }
+
+  /* Calls pager after every pageLines lines */
+  public ArticleRenderer setPager(int pageLines, Pager pager) {
+    if (pageLines < 1)
+      throw new IllegalArgumentException("pageLines must be at least 1");
+    if (pager == null)
+      throw new IllegalArgumentException("pager must not be null");
+    this.pageLines = pageLines;
+    this.pager = pager;
+    return this;
+  }
+
+  /* render writes an article to out
+
+     @param:  a   The Article object to be rendered
+     @param:  out Where the text is written
+     @return:     true if the whole article was written, false if it was
+                  truncated or the pager stopped it
+  */
+  public boolean render(Article a, Appendable out) throws IOException {
+    this.out = out;
+    lines = 0;
+    full = false;
+    stopped = false;
+    try {
+      String t = a.getTitle();
+      write(t, 0, t.length());
+      newline();
+      for (int i = 0; i < t.length() && !stopped; i += RULE.length())
+        write(RULE, 0, Math.min(RULE.length(), t.length() - i));
+      newline();
+      body(a.getBody());
+      return !stopped;
+    } finally {
+      this.out = null;
+    }
+  }
+
+  private static final String RULE = "================================================================";
+
+  /* body wraps every line of the body at width columns and ends each with
+     a blank line. A line is a run of text between line breaks ("\n", "\r"
+     or "\r\n"), and a word is a run between single spaces, so a double
+     space is an empty word and keeps its column. Line breaks and spaces at
+     the very end of the body and of each line are dropped.
+  */
+  private void body(String s) throws IOException {
+    int end = s.length();
+    while (end > 0 && (s.charAt(end - 1) == '\n' || s.charAt(end - 1) == '\r'))
+      --end;
+    if (end == 0 && s.length() > 0)  // nothing but line breaks
+      return;
+
+    int start = 0;
+    while (!stopped) {
+      int lineEnd = start;
+      while (lineEnd < end && s.charAt(lineEnd) != '\n' && s.charAt(lineEnd) != '\r')
+        ++lineEnd;
+      line(s, start, lineEnd);
+      newline();
+      newline();
+      if (lineEnd == end)
+        break;
+      start = lineEnd + ((s.charAt(lineEnd) == '\r' && lineEnd + 1 < end && s.charAt(lineEnd + 1) == '\n') ? 2 : 1);
+    }
+  }
+
+  /* line writes the words of s[start, end), wrapping before any word that
+     would reach the last column
+  */
+  private void line(String s, int start, int end) throws IOException {
+    int wordsEnd = end;
+    while (wordsEnd > start && s.charAt(wordsEnd - 1) == ' ')
+      --wordsEnd;
+    if (wordsEnd == start && end > start) // nothing but spaces
+      return;
+
+    int cols = 0;
+    int w = start;
+    while (!stopped) {
+      int wEnd = s.indexOf(' ', w);
+      if (wEnd < 0 || wEnd > wordsEnd)
+        wEnd = wordsEnd;
+      int len = wEnd - w;
+      if (cols + len >= width) {
+        newline();
+        cols = len + 1;
+      } else {
+        cols += len + 1;
+      }
+      write(s, w, wEnd);
+      write(" ", 0, 1);
+      if (wEnd >= wordsEnd)
+        break;
+      w = wEnd + 1;
+    }
+  }
+
+  /* Writes s[from, to) without making a substring */
+  private void write(String s, int from, int to) throws IOException {
+    if (stopped || (full && truncate()))
+      return;
+    if (out instanceof Writer)
+      ((Writer) out).write(s, from, to - from);
+    else
+      out.append(s, from, to);
+  }
+
+  /* Ends a line, then asks the pager if it was the last one of a page.
+     Once maxLines lines are written, the next write truncates instead.
+  */
+  private void newline() throws IOException {
+    if (stopped || (full && truncate()))
+      return;
+    out.append('\n');
+    ++lines;
+    if (lines >= maxLines)
+      full = true;
+    else if (lines % pageLines == 0 && !pager.nextPage(out))
+      stopped = true;
+  }
+
+  /* Writes TRUNCATED in place of the rest of the article, and returns true */
+  private boolean truncate() throws IOException {
+    out.append(TRUNCATED);
+    stopped = true;
+    return true;
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) throws IOException {
+    System.out.println("Testing render, should match the old toString exactly for these bodies:");
+    String[] bodies = { "", "\n", "one line", "two\nlines\n\n", "blank\n\nline", "  leading and  double  spaces  ",
+                        "\r\nwindows\r\nbreaks\rand old mac", "   \nspaces only line",
+                        "x".repeat(100) + " long word", ("word ".repeat(50) + "\n").repeat(3) };
+    int same = 0;
+    for (String body : bodies) {
+      Article a = new Article("Title", body);
+      StringBuilder sb = new StringBuilder();
+      new ArticleRenderer().render(a, sb);
+      if (sb.toString().equals(oldToString(a)))
+        ++same;
+      else
+        System.out.println("differs for " + body);
+    }
+    System.out.println(same + " of " + bodies.length);
+    System.out.println();
+
+    Article longArticle = new Article("Long", ("lorem ipsum dolor sit amet ".repeat(20) + "\n").repeat(10));
+
+    System.out.println("Testing truncation after 5 lines, should end with " + TRUNCATED.trim() + ":");
+    StringWriter w = new StringWriter();
+    boolean complete = new ArticleRenderer().setMaxLines(5).render(longArticle, w);
+    System.out.print(w);
+    System.out.println("complete: " + complete);
+    System.out.println();
+
+    System.out.println("Testing an article of exactly 4 lines, should be complete at 4 lines and truncated at 3:");
+    Article shortArticle = new Article("T", "one line");
+    StringBuilder exact = new StringBuilder();
+    boolean whole = new ArticleRenderer().setMaxLines(4).render(shortArticle, exact);
+    StringBuilder cut = new StringBuilder();
+    boolean partial = new ArticleRenderer().setMaxLines(3).render(shortArticle, cut);
+    System.out.println(whole + " " + !exact.toString().contains(TRUNCATED) + ", " + !partial + " " + cut.toString().endsWith(TRUNCATED));
+    System.out.println();
+
+    System.out.println("Testing a page of 0 lines, should be refused:");
+    try {
+      new ArticleRenderer().setPager(0, new Pager() {
+        public boolean nextPage(Appendable out) {
+          return true;
+        }
+      });
+      System.out.println("accepted");
+    } catch (IllegalArgumentException e) {
+      System.out.println("refused: " + e.getMessage());
+    }
+    System.out.println();
+
+    System.out.println("Testing paging every 10 lines, stopping after 2 pages, should be 2 pages and 20 lines:");
+    final int[] pages = new int[1];
+    StringBuilder paged = new StringBuilder();
+    new ArticleRenderer().setPager(10, new Pager() {
+      public boolean nextPage(Appendable out) {
+        return ++pages[0] < 2;
+      }
+    }).render(longArticle, paged);
+    int lines = 0;
+    for (int i = 0; i < paged.length(); ++i)
+      if (paged.charAt(i) == '\n')
+        ++lines;
+    System.out.println(pages[0] + " pages and " + lines + " lines");
+  }
+
+  // The rendering Article.toString used to do, kept to test against
+  private static String oldToString(Article a) {
+    String t = a.getTitle();
+    String s = t + "\n";
+    for (int i = 0; i < t.length(); i++)
+      s += "=";
+    s += "\n";
+
+    String out = "";
+    String[] lines = a.getBody().split("\r\n?|\n");
+    int cols = 0;
+    for (int i = 0; i < lines.length; i++) {
+      String[] words = lines[i].split(" ");
+      for (int j = 0; j < words.length; j++) {
+        if (cols + words[j].length() >= 80) {
+          cols = words[j].length() + 1;
+          out += "\n" + words[j] + " ";
+        } else {
+          cols += words[j].length() + 1;
+          out += words[j] + " ";
+        }
+      }
+      cols = 0;
+      out += "\n\n";
+    }
+    return s + out;
+  }
+}
@@ -0,0 +1,74 @@
+/* ArticleTable.java
+   What every table of articles offers, whatever its storage: lookup by
+   title, insert, update and delete, iteration, and the inverted index and
+   query cache that phrase searches use. ArticleHashTable keeps its
+   articles in chains for one thread at a time; ConcurrentArticleHashTable
+   keeps them for many threads at once. Code that only needs a table takes
+   an ArticleTable, so it works with either.
+
+   A table keeps its index up to date as articles change; the index
+   generation tells the cache when results are stale.
+ */
+
+import java.util.*;
+
+public abstract class ArticleTable implements Iterable<Article> {
+
+  private final InvertedIndex index = new InvertedIndex();
+  private final QueryCache<List<SearchHit>> cache = new QueryCache<List<SearchHit>>(256);
+
+  /* Returns the inverted index of all articles in the table */
+  public InvertedIndex getIndex(){
+    return index;
+  }
+
+  /* Returns the cache of ranked matches over this table's articles */
+  public QueryCache<List<SearchHit>> getCache(){
+    return cache;
+  }
+
+  public void initialize(Article [] A) { // inserts an array of articles into the table
+    for(int i = 0; i < A.length; ++i)
+      insert(A[i]);
+  }
+
+  /* Inserts an article unless one with the same title is already present */
+  public abstract void insert(Article a);
+
+  /* Replaces the article that has the same title as a, or inserts a if there is none */
+  public abstract void update(Article a);
+
+  /* Deletes the article with the given title, if present */
+  public abstract void delete(String title);
+
+  /* Returns the article with the given title, or null */
+  public abstract Article lookup(String title);
+
+  /* Returns the number of articles in the table */
+  public abstract int size();
+
+  /* Returns the current number of buckets */
+  public abstract int getM();
+
+  public boolean member(String title){
+    return (lookup(title) != null);
+  }
+
+  /* Returns the k articles most similar to the one with the given title
+     (see InvertedIndex.related), or null if there is no such article
+  */
+  public List<SearchHit> related(String title, int k){
+    long start = Metrics.start();
+    Article a = lookup(title);
+    List<SearchHit> hits = (a == null) ? null : index.related(a, k);
+    Metrics.RELATED.recordSince(start);
+    return hits;
+  }
+
+  // Iteration with a cursor kept by the table: reset, then next while hasNext
+  public abstract void reset();
+
+  public abstract boolean hasNext();
+
+  public abstract Article next();
+}
@@ -0,0 +1,291 @@
+/* BatchSearch.java
+   Runs a file of search phrases against the loaded articles without the
+   menu, for relevance evaluation and capacity testing. Started with
+
+     java Javapedia --batch [file] [--k n] [--mode cosine|tfidf|bm25]
+                                   [--format tsv|json] [--threads n]
+
+   Phrases are read one per line from the file, or from standard input if
+   there is no file or it is "-". A line may start with a query id and a
+   tab; otherwise the line number is the id. Blank lines are skipped. An
+   unknown option or value is reported with the usage line before any
+   articles are loaded.
+
+   The ranked matches are written to standard output in input order, as
+   TSV lines "id <tab> rank <tab> score <tab> title" or one JSON object per
+   query. A summary of queries per second and latency percentiles goes to
+   standard error.
+
+   Queries are searched on a pool of threads, each query on one thread, so
+   a busy machine spends no time splitting single searches. Reading,
+   searching and writing overlap: at most WINDOW queries per thread are in
+   flight, so memory stays bounded however long the input is. The query
+   cache is not used, so every query is really searched.
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BatchSearch {
+
+  private static final int WINDOW = 8;  // queries in flight per thread
+
+  private final ArticleTable T;
+  private final Scorer scorer;
+  private final int k;
+  private final boolean json;
+  private final int threads;
+  private final LatencyHistogram latency = new LatencyHistogram("batch");
+
+  /* @param: T       The articles to search
+     @param: scorer  The ranking function
+     @param: k       The number of matches written per query
+     @param: json    True for JSON lines, false for TSV
+     @param: threads The number of queries searched at once
+  */
+  public BatchSearch(ArticleTable T, Scorer scorer, int k, boolean json, int threads) {
+    if (k < 1 || threads < 1)
+      throw new IllegalArgumentException("k and threads must be at least 1");
+    this.T = T;
+    this.scorer = scorer;
+    this.k = k;
+    this.json = json;
+    this.threads = threads;
+  }
+
+  static final String USAGE =
+    "Usage: java Javapedia --batch [file] [--k n] [--mode cosine|tfidf|bm25] [--format tsv|json] [--threads n]";
+
+  /* Options are the command line arguments of a batch run, checked before
+     the articles are loaded
+  */
+  static class Options {
+    String file = "-";
+    Scorer scorer = Scorer.forName(null);
+    int k = 10;
+    boolean json = false;
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    /* parse reads the arguments that followed --batch
+
+       @param:  args The arguments
+       @return:      The options; an unknown option or value throws an
+                     IllegalArgumentException saying what is wrong
+    */
+    static Options parse(String[] args) {
+      Options o = new Options();
+      for (int i = 0; i < args.length; ++i) {
+        if (args[i].startsWith("--") && i + 1 == args.length)
+          throw new IllegalArgumentException(args[i] + " needs a value");
+        if (args[i].equals("--k"))
+          o.k = between(args[i], args[++i], 1, Javapedia.MAX_RESULTS);
+        else if (args[i].equals("--mode"))
+          o.scorer = Scorer.forName(args[++i]);
+        else if (args[i].equals("--format"))
+          o.json = isJson(args[++i]);
+        else if (args[i].equals("--threads"))
+          o.threads = between(args[i], args[++i], 1, Integer.MAX_VALUE);
+        else if (args[i].startsWith("--"))
+          throw new IllegalArgumentException("Unknown option " + args[i] + ".");
+        else
+          o.file = args[i];
+      }
+      return o;
+    }
+
+    private static boolean isJson(String format) {
+      if (!format.equals("tsv") && !format.equals("json"))
+        throw new IllegalArgumentException("Unknown format " + format + ", use tsv or json.");
+      return format.equals("json");
+    }
+
+    private static int between(String option, String value, int min, int max) {
+      try {
+        int n = Integer.parseInt(value);
+        if (n >= min && n <= max)
+          return n;
+      } catch (NumberFormatException e) {
+        // reported below
+      }
+      String range = (max == Integer.MAX_VALUE) ? "of at least " + min : "from " + min + " to " + max;
+      throw new IllegalArgumentException(option + " must be a whole number " + range + ", not " + value + ".");
+    }
+  }
+
+  /* run builds a BatchSearch from command line options, runs it, and
+     prints the summary
+
+     @param: T The articles to search
+     @param: o The options that followed --batch
+  */
+  public static void run(ArticleTable T, Options o) throws IOException, InterruptedException {
+    BatchSearch batch = new BatchSearch(T, o.scorer, o.k, o.json, o.threads);
+    Reader in = o.file.equals("-") ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                                   : new InputStreamReader(new FileInputStream(o.file), StandardCharsets.UTF_8);
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+    try {
+      System.err.println(batch.run(new BufferedReader(in), out));
+    } finally {
+      in.close();
+    }
+  }
+
+  /* run searches every query read from in and writes the results to out
+
+     @param:  in      The queries, one per line
+     @param:  out     Where the ranked matches are written
+     @return: summary One line with the number of queries, queries per
+                      second, and latency percentiles
+  */
+  public String run(BufferedReader in, Writer out) throws IOException, InterruptedException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    ArrayDeque<Future<String>> inFlight = new ArrayDeque<Future<String>>();
+    long start = System.nanoTime();
+    int count = 0;
+    try {
+      String line;
+      int lineNumber = 0;
+      while ((line = in.readLine()) != null) {
+        ++lineNumber;
+        if (line.trim().isEmpty())
+          continue;
+        int tab = line.indexOf('\t');
+        final String id = (tab < 0) ? Integer.toString(lineNumber) : line.substring(0, tab);
+        final String phrase = (tab < 0) ? line : line.substring(tab + 1);
+        inFlight.add(pool.submit(new Callable<String>() {
+          public String call() {
+            return search(id, phrase);
+          }
+        }));
+        ++count;
+        if (inFlight.size() >= WINDOW * threads) // wait for the oldest before reading on
+          out.write(take(inFlight.poll()));
+      }
+      while (!inFlight.isEmpty())
+        out.write(take(inFlight.poll()));
+      out.flush();
+    } finally {
+      pool.shutdownNow();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    return String.format("%d queries in %.2f s, %.1f queries/s, latency p50 %.1f  p99 %.1f  p99.9 %.1f  max %.1f us",
+                         count, seconds, count / seconds, latency.getP50Micros(), latency.getP99Micros(),
+                         latency.getP999Micros(), latency.getMaxMicros());
+  }
+
+  private static String take(Future<String> f) throws InterruptedException, IOException {
+    try {
+      return f.get();
+    } catch (ExecutionException e) {
+      throw new IOException("query failed", e.getCause());
+    }
+  }
+
+  /* search runs one query and returns its formatted results */
+  String search(String id, String phrase) {
+    long start = System.nanoTime();
+    BooleanQuery filter = BooleanQuery.parse(phrase);
+    List<SearchHit> hits = T.getIndex().search(TermVector.ofQuery(filter.text()), scorer, k, filter);
+    latency.record(System.nanoTime() - start);
+
+    StringBuilder sb = new StringBuilder();
+    if (json) {
+      sb.append("{\"id\":");
+      quote(id, sb);
+      sb.append(",\"query\":");
+      quote(phrase, sb);
+      sb.append(",\"results\":[");
+      for (int i = 0; i < hits.size(); ++i) {
+        sb.append((i == 0) ? "{" : ",{").append("\"rank\":").append(i + 1);
+        sb.append(",\"score\":").append(hits.get(i).getScore()).append(",\"title\":");
+        quote(hits.get(i).getArticle().getTitle(), sb);
+        sb.append('}');
+      }
+      sb.append("]}\n");
+    } else {
+      for (int i = 0; i < hits.size(); ++i) {
+        sb.append(id).append('\t').append(i + 1).append('\t').append(hits.get(i).getScore()).append('\t');
+        sb.append(hits.get(i).getArticle().getTitle().replace('\t', ' ')).append('\n');
+      }
+    }
+    return sb.toString();
+  }
+
+  /* Appends s as a JSON string */
+  static void quote(String s, StringBuilder sb) {
+    sb.append('"');
+    for (int i = 0; i < s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\')
+        sb.append('\\').append(c);
+      else if (c == '\n')
+        sb.append("\\n");
+      else if (c == '\t')
+        sb.append("\\t");
+      else if (c < 0x20)
+        sb.append(String.format("\\u%04x", (int) c));
+      else
+        sb.append(c);
+    }
+    sb.append('"');
+  }
+
+  /* Returns the latencies of the queries run so far */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    ArticleHashTable T = new ArticleHashTable();
+    T.insert(new Article("Cars", "Cars have wheels"));
+    T.insert(new Article("Boats", "Boats float on water"));
+    T.insert(new Article("Say \"hi\"", "a greeting with wheels"));
+
+    System.out.println("Testing TSV, should be 2 wheels matches for q1 and Boats as line 3 (line 2 is blank):");
+    StringWriter tsv = new StringWriter();
+    new BatchSearch(T, new CosineScorer(), 5, false, 2).run(
+      new BufferedReader(new StringReader("q1\twheels\n\nboats\n")), tsv);
+    System.out.print(tsv);
+    System.out.println();
+
+    System.out.println("Testing JSON, should escape the quotes in the title:");
+    StringWriter json = new StringWriter();
+    new BatchSearch(T, new CosineScorer(), 1, true, 1).run(new BufferedReader(new StringReader("greeting")), json);
+    System.out.print(json);
+    System.out.println();
+
+    System.out.println("Testing 5000 queries on 4 threads, results should stay in input order (true):");
+    StringBuilder queries = new StringBuilder();
+    for (int i = 0; i < 5000; ++i)
+      queries.append(i).append('\t').append((i % 2 == 0) ? "wheels" : "boats").append('\n');
+    StringWriter many = new StringWriter();
+    BatchSearch batch = new BatchSearch(T, new Bm25Scorer(), 1, false, 4);
+    String summary = batch.run(new BufferedReader(new StringReader(queries.toString())), many);
+    String[] lines = many.toString().split("\n");
+    boolean inOrder = lines.length == 5000;
+    for (int i = 0; i < lines.length && inOrder; ++i)
+      inOrder = lines[i].startsWith(i + "\t");
+    System.out.println(inOrder + " (" + batch.getLatency().getCount() + " timed)");
+    System.out.println(summary.substring(0, summary.indexOf(" in ")));
+    System.out.println();
+
+    System.out.println("Testing options, should be json, k 3, queries.txt, then 4 refusals:");
+    Options o = Options.parse(new String[] { "queries.txt", "--format", "json", "--k", "3" });
+    System.out.println((o.json ? "json" : "tsv") + ", k " + o.k + ", " + o.file);
+    String[][] bad = { { "--format", "xml" }, { "--k", "0" }, { "--k", "2000000000" },
+                       { "--color", "red" } };
+    for (String[] b : bad) {
+      try {
+        Options.parse(b);
+        System.out.println("accepted " + String.join(" ", b));
+      } catch (IllegalArgumentException e) {
+        System.out.println(e.getMessage());
+      }
+    }
+  }
+}
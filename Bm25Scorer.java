@@ -0,0 +1,46 @@
+/* Bm25Scorer.java
+   Scores articles with Okapi BM25. Each matching term adds its inverse
+   document frequency, scaled by a term frequency that saturates (k1)
+   and is normalized by the article's length relative to the average
+   article length (b).
+ */
+
+public class Bm25Scorer implements Scorer {
+
+  private final double k1;
+  private final double b;
+
+  public Bm25Scorer(double k1, double b) {
+    this.k1 = k1;
+    this.b = b;
+  }
+
+  public Bm25Scorer() {
+    this(1.2, 0.75);
+  }
+
+  public String name() {
+    return "BM25 score";
+  }
+
+  /* BM25 inverse document frequency, which is always positive */
+  static double idf(int docFreq, InvertedIndex index) {
+    int n = index.numDocs();
+    return Math.log(1 + (n - docFreq + 0.5) / (docFreq + 0.5));
+  }
+
+  public double weight(int queryFreq, int termFreq, int docFreq, TermVector doc, InvertedIndex index) {
+    double avg = index.avgDocLength();
+    double lengthRatio = (avg == 0) ? 1 : doc.length() / avg;
+    double tf = termFreq * (k1 + 1) / (termFreq + k1 * (1 - b + b * lengthRatio));
+    return queryFreq * idf(docFreq, index) * tf;
+  }
+
+  public double finish(double sum, TermVector query, TermVector doc, InvertedIndex index) {
+    return sum;
+  }
+
+  public boolean allowsPruning() {
+    return true;
+  }
+}
@@ -0,0 +1,286 @@
+/* BooleanQuery.java
+   A search phrase read as a list of clauses that decide which articles
+   match. A clause is a word, a quoted phrase (see PhraseQuery), or a list
+   of clauses in parentheses, and is one of
+
+     required  +word, or joined to a neighbour by AND
+     excluded  -word, or after NOT
+     optional  a plain word, or joined to a neighbour by OR
+
+   An article matches if it contains every required clause and no
+   excluded one; if there are no required clauses, it must also contain
+   at least one optional clause. Quoted phrases are required unless
+   joined by OR. So
+
+     +apollo moon -landing
+     apollo AND moon NOT landing
+     ("outer space" OR orbit) AND planets
+
+   are all understood. Operators must be in capitals; lowercase "and",
+   "or" and "not" are searched for as words. A search phrase without any
+   operators is the same as before: every article sharing a word with it
+   is a candidate.
+
+   Every word that is not excluded is also used to rank the matches, by
+   building a TermVector from text(), so a search that only excludes
+   words finds nothing.
+ */
+
+import java.util.*;
+
+public class BooleanQuery {
+
+  static final int SHOULD = 0;    // optional
+  static final int MUST = 1;      // required
+  static final int MUST_NOT = 2;  // excluded
+
+  /* Clause is one word, phrase, or group, and whether it is required,
+     excluded, or optional. Exactly one of term, phrase and group is set.
+  */
+  static class Clause {
+    int occur;
+    boolean explicit;          // occur was set by an operator, not by default
+    final String text;         // the words as typed, for ranking
+    final String term;         // the analyzed word
+    final int id;              // its TermDictionary id, -1 if no article contains it
+    final PhraseQuery phrase;
+    final BooleanQuery group;
+
+    Clause(int occur, String text, String term, PhraseQuery phrase, BooleanQuery group) {
+      this.occur = occur;
+      this.text = text;
+      this.term = term;
+      this.id = (term == null) ? -1 : TermDictionary.shared().lookup(term);
+      this.phrase = phrase;
+      this.group = group;
+    }
+
+    public String toString() {
+      String prefix = (occur == MUST) ? "+" : (occur == MUST_NOT) ? "-" : "";
+      if (group != null)
+        return prefix + "(" + group + ")";
+      return prefix + ((phrase != null) ? phrase.toString() : term);
+    }
+  }
+
+  private final List<Clause> clauses;
+
+  private BooleanQuery(List<Clause> clauses) {
+    this.clauses = clauses;
+  }
+
+  /* parse reads the clauses of a search phrase. A quote or parenthesis
+     that is never closed runs to the end of the phrase, and a closing
+     parenthesis without an opening one is ignored. Words, phrases and
+     groups holding only blacklisted words are dropped.
+
+     @param:  s The search phrase as typed
+     @return:   The query
+  */
+  public static BooleanQuery parse(String s) {
+    int[] at = { 0 };
+    return parseGroup(s, at, false);
+  }
+
+  /* parseGroup reads clauses from s starting at at[0], up to the end of s
+     or, if nested, a closing parenthesis, and leaves at[0] after it
+  */
+  private static BooleanQuery parseGroup(String s, int[] at, boolean nested) {
+    List<Clause> clauses = new ArrayList<Clause>();
+    Clause last = null;
+    int pending = -1;     // occur set for the next clause by AND, OR or NOT
+    int i = at[0];
+    while (i < s.length()) {
+      char c = s.charAt(i);
+      if (Character.isWhitespace(c)) {
+        ++i;
+        continue;
+      }
+      if (c == ')') {
+        ++i;
+        if (nested)         // end of this group
+          break;
+        continue;           // stray
+      }
+
+      int prefix = -1;
+      if (isPrefix(s, i)) {
+        prefix = (c == '+') ? MUST : MUST_NOT;
+        c = s.charAt(++i);
+      }
+
+      Clause clause = null;
+      if (c == '"') {
+        int close = s.indexOf('"', i + 1);
+        if (close < 0)
+          close = s.length();
+        String quoted = s.substring(i + 1, close);
+        i = close + 1;
+        int slop = 0;
+        if (i < s.length() && s.charAt(i) == '~') {  // proximity, e.g. "apollo moon"~3
+          int end = i + 1;
+          while (end < s.length() && end < i + 6 && Character.isDigit(s.charAt(end)))
+            ++end;
+          if (end > i + 1) {
+            slop = Integer.parseInt(s.substring(i + 1, end));
+            i = end;
+          }
+        }
+        PhraseQuery p = PhraseQuery.of(quoted, slop);
+        if (p.size() > 0)
+          clause = new Clause(MUST, quoted, null, p, null);
+      } else if (c == '(') {
+        at[0] = i + 1;
+        BooleanQuery group = parseGroup(s, at, true);
+        i = at[0];
+        if (!group.clauses.isEmpty())
+          clause = new Clause(SHOULD, group.text(), null, null, group);
+      } else {
+        int end = i;
+        while (end < s.length() && !Character.isWhitespace(s.charAt(end)) && "\"()".indexOf(s.charAt(end)) < 0)
+          ++end;
+        String word = s.substring(i, end);
+        i = end;
+        if (prefix < 0 && isOperator(word)) {
+          if (word.equals("NOT")) {
+            pending = MUST_NOT;
+          } else {
+            pending = word.equals("AND") ? MUST : SHOULD;
+            if (last != null && !last.explicit) {   // the operator joins the clause before it too
+              last.occur = pending;
+              last.explicit = (pending == MUST);
+            }
+          }
+          continue;
+        }
+        String[] terms = Analyzer.tokenize(word);
+        if (terms.length > 0)
+          clause = new Clause(SHOULD, word, terms[0], null, null);
+      }
+
+      if (clause != null) {
+        if (prefix >= 0) {
+          clause.occur = prefix;
+          clause.explicit = true;
+        } else if (pending >= 0) {
+          clause.occur = pending;
+          clause.explicit = (pending != SHOULD);
+        }
+        clauses.add(clause);
+        last = clause;
+      }
+      pending = -1;
+    }
+    at[0] = i;
+    return new BooleanQuery(clauses);
+  }
+
+  /* Returns true if the + or - at i starts a clause rather than a word */
+  private static boolean isPrefix(String s, int i) {
+    char c = s.charAt(i);
+    return (c == '+' || c == '-') && (i == 0 || Character.isWhitespace(s.charAt(i - 1)) || s.charAt(i - 1) == '(')
+           && i + 1 < s.length() && !Character.isWhitespace(s.charAt(i + 1)) && s.charAt(i + 1) != ')';
+  }
+
+  private static boolean isOperator(String word) {
+    return word.equals("AND") || word.equals("OR") || word.equals("NOT");
+  }
+
+  /* hasOperators tells, without parsing, whether a search phrase uses any
+     quotes, parentheses, prefixes or operators. If not, it is a plain
+     list of words.
+  */
+  public static boolean hasOperators(String s) {
+    for (int i = 0; i < s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '(' || c == ')' || isPrefix(s, i))
+        return true;
+      if ((c == 'A' || c == 'O' || c == 'N') && (i == 0 || Character.isWhitespace(s.charAt(i - 1)))) {
+        int end = i;
+        while (end < s.length() && !Character.isWhitespace(s.charAt(end)))
+          ++end;
+        if (isOperator(s.substring(i, end)))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /* Returns true if the query is only optional words, so that any article
+     containing one of them matches
+  */
+  public boolean isPlain() {
+    for (Clause c : clauses)
+      if (c.occur != SHOULD || c.term == null)
+        return false;
+    return true;
+  }
+
+  /* Returns true if the search phrase had no searchable words */
+  public boolean isEmpty() {
+    return clauses.isEmpty();
+  }
+
+  List<Clause> clauses() {
+    return clauses;
+  }
+
+  /* Returns the words of every clause that is not excluded, to be analyzed
+     into the TermVector that ranks the matches
+  */
+  public String text() {
+    StringBuilder sb = new StringBuilder();
+    for (Clause c : clauses)
+      if (c.occur != MUST_NOT)
+        sb.append(c.text).append(' ');
+    return sb.toString();
+  }
+
+  /* Returns the query in a normal form, e.g. +apollo -landing moon, with
+     its clauses sorted, so that equal queries give equal strings (for
+     QueryCache keys)
+  */
+  public String toString() {
+    String[] parts = new String[clauses.size()];
+    for (int i = 0; i < parts.length; ++i)
+      parts[i] = clauses.get(i).toString();
+    Arrays.sort(parts);
+    return String.join(" ", parts);
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) {
+    String[][] tests = {
+      { "space planets moon", "moon planets space" },
+      { "+Apollo moon -landing", "+apollo -landing moon" },
+      { "apollo AND moon NOT landing", "+apollo +moon -landing" },
+      { "\"Outer Space\" planets", "+\"outer space\" planets" },
+      { "\"outer space\" OR orbit", "\"outer space\" orbit" },
+      { "(cats OR dogs) AND pets -(fish bird)", "+(cats dogs) +pets -(bird fish)" },
+      { "the AND of cars", "cars" },
+      { "x-ray - +", "xray" },
+      { "apollo and moon", "apollo moon" },
+      { "\"lord of the rings\"~2 (unclosed", "(unclosed) +\"lord _ _ rings\"~2" },
+    };
+    System.out.println("Testing parse, each query should be followed by its normal form:");
+    for (String[] t : tests) {
+      String got = BooleanQuery.parse(t[0]).toString();
+      System.out.println(t[0] + "  ->  " + got + (got.equals(t[1]) ? "" : "   WRONG, expected " + t[1]));
+    }
+    System.out.println();
+
+    System.out.println("Testing isPlain, should be true false false:");
+    System.out.println(parse("space planets").isPlain() + " " + parse("+space planets").isPlain() + " " +
+                       parse("\"space planets\"").isPlain());
+    System.out.println();
+
+    System.out.println("Testing text, excluded words should be left out: apollo moon");
+    System.out.println(parse("+apollo moon -landing NOT rocket").text().trim());
+    System.out.println();
+
+    System.out.println("Testing hasOperators, should be false false true true true:");
+    System.out.println(hasOperators("x-ray and ORBIT") + " " + hasOperators("a - b") + " " + hasOperators("-b") + " " +
+                       hasOperators("a OR b") + " " + hasOperators("\"a b\""));
+  }
+}
@@ -0,0 +1,323 @@
+/* ConcurrentArticleHashTable.java
+   An ArticleTable that many threads can use at once, e.g. request threads
+   serving title lookups against one shared table. It has its own storage,
+   not ArticleHashTable's single-threaded chains and master list.
+
+   lookup and member never lock: buckets are read from an atomic array
+   and chain links are volatile, so a reader always sees a complete chain.
+   insert and delete lock only one of STRIPES locks, chosen by the title's
+   hash, so writes to different stripes run in parallel. Since the number
+   of buckets is a power of 2 and never below STRIPES, all titles in one
+   bucket share a stripe. Resizing takes every stripe lock and copies the
+   nodes into a new array of buckets; readers still walking the old array
+   see the old chains unchanged.
+
+   Each call to iterator() returns an independent iterator over the
+   buckets as they were when it was created. It is weakly consistent:
+   it never fails, and it may or may not show changes made after it
+   was created. Articles are returned in no particular order.
+ */
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+public class ConcurrentArticleHashTable extends ArticleTable {
+
+  /* Node stores one article in a chain. Only next changes after creation. */
+  private static class Node {
+    final String key;
+    final int h;
+    final Article datum;
+    volatile Node next;
+
+    Node(Article datum, int h, Node next) {
+      this.key = datum.getTitle();
+      this.h = h;
+      this.datum = datum;
+      this.next = next;
+    }
+  }
+
+  private static final int STRIPES = 64;          // number of write locks, a power of 2
+  private static final double LOAD_FACTOR = 0.75;
+
+  private volatile AtomicReferenceArray<Node> table = new AtomicReferenceArray<Node>(STRIPES);
+  private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+  private final AtomicInteger size = new AtomicInteger();
+
+  // per-thread cursors for the reset/hasNext/next methods
+  private final ThreadLocal<Iterator<Article>> cursor = new ThreadLocal<Iterator<Article>>();
+
+  public ConcurrentArticleHashTable() {
+    for (int i = 0; i < STRIPES; ++i)
+      locks[i] = new ReentrantLock();
+  }
+
+  private static int spread(String title) {
+    int h = title.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  public int getM() {
+    return table.length();
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  /* Returns the article with the given title, or null. Never blocks. */
+  public Article lookup(String title) {
+    long start = Metrics.start();
+    int h = spread(title);
+    AtomicReferenceArray<Node> tab = table;
+    Article a = null;
+    for (Node p = tab.get(h & (tab.length() - 1)); p != null; p = p.next) {
+      if (p.h == h && p.key.equals(title)) {
+        a = p.datum;
+        break;
+      }
+    }
+    Metrics.LOOKUP.recordSince(start);
+    return a;
+  }
+
+  /* lockFor locks the stripe of a hash and returns the bucket array that is
+     current while the lock is held, retrying if a resize got in first.
+  */
+  private AtomicReferenceArray<Node> lockFor(int h) {
+    ReentrantLock l = locks[h & (STRIPES - 1)];
+    while (true) {
+      AtomicReferenceArray<Node> tab = table;
+      l.lock();
+      if (tab == table)
+        return tab;
+      l.unlock();
+    }
+  }
+
+  /* Inserts an article unless one with the same title is already present.
+     The article is indexed while its stripe is locked, so an insert and a
+     delete of the same title reach the index in the same order as the table.
+  */
+  public void insert(Article a) {
+    long start = Metrics.start();
+    int h = spread(a.getTitle());
+    AtomicReferenceArray<Node> tab = lockFor(h);
+    try {
+      int i = h & (tab.length() - 1);
+      Node first = tab.get(i);
+      for (Node p = first; p != null; p = p.next) {
+        if (p.h == h && p.key.equals(a.getTitle())) {
+          Metrics.INSERT.recordSince(start);
+          return;
+        }
+      }
+      tab.set(i, new Node(a, h, first)); // readers see either the old or the new head
+      getIndex().add(a);
+    } finally {
+      locks[h & (STRIPES - 1)].unlock();
+    }
+
+    if (size.incrementAndGet() > LOAD_FACTOR * tab.length())
+      resize(tab);
+    Metrics.INSERT.recordSince(start);
+  }
+
+  /* Replaces the article with the same title, or inserts it if there is none.
+     The old node is swapped for a new one, so readers see one version or the other.
+  */
+  public void update(Article a) {
+    long start = Metrics.start();
+    int h = spread(a.getTitle());
+    AtomicReferenceArray<Node> tab = lockFor(h);
+    try {
+      int i = h & (tab.length() - 1);
+      Node q = null;
+      for (Node p = tab.get(i); p != null; q = p, p = p.next) {
+        if (p.h == h && p.key.equals(a.getTitle())) {
+          Node n = new Node(a, h, p.next);
+          if (q == null)
+            tab.set(i, n);
+          else
+            q.next = n;
+          getIndex().update(p.datum, a);
+          Metrics.UPDATE.recordSince(start);
+          return;
+        }
+      }
+    } finally {
+      locks[h & (STRIPES - 1)].unlock();
+    }
+    insert(a); // not found; insert locks again and rechecks, in case of a race
+  }
+
+  /* Deletes the article with the given title, if present. A reader standing on
+     the removed node can still follow its next link to the rest of the chain.
+  */
+  public void delete(String title) {
+    long start = Metrics.start();
+    int h = spread(title);
+    AtomicReferenceArray<Node> tab = lockFor(h);
+    try {
+      int i = h & (tab.length() - 1);
+      Node q = null;
+      for (Node p = tab.get(i); p != null; q = p, p = p.next) {
+        if (p.h == h && p.key.equals(title)) {
+          if (q == null)
+            tab.set(i, p.next);
+          else
+            q.next = p.next;
+          size.decrementAndGet();
+          getIndex().remove(p.datum);
+          break;
+        }
+      }
+    } finally {
+      locks[h & (STRIPES - 1)].unlock();
+    }
+    Metrics.DELETE.recordSince(start);
+  }
+
+  /* resize doubles the number of buckets, unless another thread already did.
+     Nodes are copied rather than relinked, so the old chains stay intact for
+     readers that are still walking them.
+  */
+  private void resize(AtomicReferenceArray<Node> old) {
+    for (int i = 0; i < STRIPES; ++i)
+      locks[i].lock();
+    try {
+      if (table != old || size.get() <= LOAD_FACTOR * old.length())
+        return;
+      int newM = 2 * old.length();
+      AtomicReferenceArray<Node> tab = new AtomicReferenceArray<Node>(newM);
+      for (int i = 0; i < old.length(); ++i) {
+        for (Node p = old.get(i); p != null; p = p.next) {
+          int j = p.h & (newM - 1);
+          tab.set(j, new Node(p.datum, p.h, tab.get(j)));
+        }
+      }
+      table = tab;
+    } finally {
+      for (int i = STRIPES - 1; i >= 0; --i)
+        locks[i].unlock();
+    }
+  }
+
+  /* Returns an independent, weakly consistent iterator over all articles */
+  public Iterator<Article> iterator() {
+    final AtomicReferenceArray<Node> tab = table;
+    return new Iterator<Article>() {
+      int bucket = 0;
+      Node p = null;
+
+      { advance(); }
+
+      private void advance() { // move to the next node, crossing into later buckets as needed
+        if (p != null)
+          p = p.next;
+        while (p == null && bucket < tab.length())
+          p = tab.get(bucket++);
+      }
+
+      public boolean hasNext() {
+        return p != null;
+      }
+
+      public Article next() {
+        if (p == null)
+          throw new NoSuchElementException();
+        Article a = p.datum;
+        advance();
+        return a;
+      }
+    };
+  }
+
+  // The shared-cursor iteration methods each get a cursor per thread.
+
+  public void reset() {
+    cursor.set(iterator());
+  }
+
+  public boolean hasNext() {
+    Iterator<Article> it = cursor.get();
+    return it != null && it.hasNext();
+  }
+
+  public Article next() {
+    return cursor.get().next();
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) {
+    try {
+      runTests();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void runTests() throws InterruptedException {
+    final ConcurrentArticleHashTable Table = new ConcurrentArticleHashTable();
+    final int THREADS = 8;
+    final int PER_THREAD = 2000;
+
+    System.out.println("Testing concurrent insert from " + THREADS + " threads, should find " +
+                       (THREADS * PER_THREAD) + ":");
+    Thread[] writers = new Thread[THREADS];
+    for (int t = 0; t < THREADS; ++t) {
+      final int id = t;
+      writers[t] = new Thread() {
+        public void run() {
+          for (int i = 0; i < PER_THREAD; ++i)
+            Table.insert(new Article("Article " + id + "-" + i, "body of article " + i));
+        }
+      };
+      writers[t].start();
+    }
+    for (Thread w : writers)
+      w.join();
+    int found = 0;
+    for (int t = 0; t < THREADS; ++t)
+      for (int i = 0; i < PER_THREAD; ++i)
+        if (Table.member("Article " + t + "-" + i))
+          ++found;
+    System.out.println(found + " found, size() is " + Table.size() + ", " + Table.getM() + " buckets");
+    System.out.println();
+
+    System.out.println("Testing lookups during concurrent deletes, should report 0 missing:");
+    final int[] missing = new int[1];
+    Thread reader = new Thread() {
+      public void run() {
+        for (int round = 0; round < 20; ++round)
+          for (int i = 1; i < PER_THREAD; i += 2) // odd articles are never deleted
+            if (Table.lookup("Article 0-" + i) == null)
+              ++missing[0];
+      }
+    };
+    reader.start();
+    for (int i = 0; i < PER_THREAD; i += 2)
+      Table.delete("Article 0-" + i);
+    reader.join();
+    System.out.println(missing[0] + " missing");
+    System.out.println();
+
+    System.out.println("Testing two iterators at once, should both count " +
+                       (THREADS * PER_THREAD - PER_THREAD / 2) + ":");
+    Iterator<Article> a = Table.iterator();
+    Iterator<Article> b = Table.iterator();
+    int countA = 0, countB = 0;
+    while (a.hasNext() || b.hasNext()) {
+      if (a.hasNext()) { a.next(); ++countA; }
+      if (b.hasNext()) { b.next(); ++countB; }
+    }
+    System.out.println(countA + " and " + countB);
+    System.out.println();
+
+    System.out.println("Testing index kept in step, should be " + (THREADS * PER_THREAD - PER_THREAD / 2) + ":");
+    System.out.println(Table.getIndex().numDocs());
+  }
+}
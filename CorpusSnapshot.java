@@ -0,0 +1,177 @@
+/* CorpusSnapshot.java
+   Saves the loaded corpus in a compact binary file so that the next start
+   can skip reading and tokenizing every article. The snapshot holds each
+   article's title, filename and body, the TermDictionary, and each
+   article's term vector as (term id, frequency) pairs with the positions
+   of each term. On start the file is memory-mapped and decoded directly;
+   the inverted index is then rebuilt from the stored vectors without
+   re-tokenizing anything.
+
+   The snapshot records a fingerprint of the articles directory (names,
+   sizes and modification times of its files). If the directory has changed
+   since the snapshot was written, the snapshot is ignored and replaced.
+
+   File layout (all integers big-endian):
+     int MAGIC, int VERSION, long fingerprint
+     int numTerms, then numTerms strings (the TermDictionary, in id order)
+     int numArticles, then for each article:
+       string title, string filename, string body,
+       int numTerms, then numTerms (int term id, int frequency) pairs,
+       int numPositions (-1 if none), then that many int positions
+       grouped by term, as TermVector.positions() returns them
+   where a string is an int byte length followed by UTF-8 bytes
+   (length -1 for null).
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class CorpusSnapshot {
+
+  private static final int MAGIC = 0x4a504453; // "JPDS"
+  private static final int VERSION = 3;
+
+  /* fingerprint summarizes the files in a directory, so that adding,
+     removing, or editing any file changes the result
+
+     @param:  path The string representing the pathname of the directory
+     @return: h    A 64-bit hash of every file's name, size, and modification time
+  */
+  public static long fingerprint(String path) {
+    File[] children = CorpusLoader.listArticles(path);
+    String[] names = new String[children.length];
+    HashMap<String, File> files = new HashMap<String, File>();
+    for (int i = 0; i < children.length; ++i) {
+      names[i] = children[i].getName();
+      files.put(names[i], children[i]);
+    }
+    Arrays.sort(names); // listing order is not guaranteed, so hash in name order
+
+    long h = 1125899906842597L;
+    for (String name : names) {
+      File f = files.get(name);
+      h = 31 * h + name.hashCode();
+      h = 31 * h + f.length();
+      h = 31 * h + f.lastModified();
+    }
+    return 31 * h + names.length;
+  }
+
+  /* write saves the articles and their term vectors to a snapshot file. The
+     file is written under a temporary name and then moved into place, so a
+     crash never leaves a half-written snapshot behind.
+
+     @param: path        The pathname of the snapshot file
+     @param: fingerprint The fingerprint of the directory the articles came from
+     @param: A           The articles to be saved
+  */
+  public static void write(String path, long fingerprint, Article[] A) throws IOException {
+    Path target = Paths.get(path);
+    Path tmp = Paths.get(path + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(fingerprint);
+
+      for (Article a : A)
+        a.getVector(); // every term id written below must be in the saved dictionary
+      TermDictionary.shared().write(out);
+
+      out.writeInt(A.length);
+      for (Article a : A) {
+        writeString(out, a.getTitle());
+        writeString(out, a.getFilename());
+        writeString(out, a.getBody());
+        TermVector v = a.getVector();
+        out.writeInt(v.size());
+        for (int i = 0; i < v.size(); ++i) {
+          out.writeInt(v.termId(i));
+          out.writeInt(v.freq(i));
+        }
+        int[] positions = v.positions();
+        out.writeInt((positions == null) ? -1 : positions.length);
+        if (positions != null)
+          for (int p : positions)
+            out.writeInt(p);
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /* read loads the articles saved in a snapshot file, with their term
+     vectors already filled in.
+
+     @param:  path        The pathname of the snapshot file
+     @param:  fingerprint The current fingerprint of the articles directory
+     @return: A           The saved articles, or null if there is no usable
+                          snapshot for this version of the directory
+  */
+  public static Article[] read(String path, long fingerprint) {
+    File f = new File(path);
+    if (!f.isFile())
+      return null;
+
+    try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+      MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+      if (buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.getLong() != fingerprint)
+        return null; // written by another version, or the directory has changed
+
+      int[] termIds = TermDictionary.shared().read(buf); // saved id -> current id
+
+      Article[] A = new Article[buf.getInt()];
+      for (int i = 0; i < A.length; ++i) {
+        String title = readString(buf);
+        String filename = readString(buf);
+        String body = readString(buf);
+        A[i] = new Article(title, body, filename);
+
+        int n = buf.getInt();
+        int[] ids = new int[n];
+        int[] freqs = new int[n];
+        for (int j = 0; j < n; ++j) {
+          ids[j] = termIds[buf.getInt()];
+          freqs[j] = buf.getInt();
+        }
+        int[] positions = null;
+        int m = buf.getInt();
+        if (m >= 0) {
+          positions = new int[m];
+          buf.asIntBuffer().get(positions);
+          buf.position(buf.position() + 4 * m);
+        }
+        A[i].setVector(TermVector.fromIds(ids, freqs, positions));
+      }
+      return A;
+    } catch (IOException | RuntimeException e) { // unreadable or truncated snapshot, rebuild it
+      return null;
+    }
+  }
+
+  /* Strings are also written this way by ArticleLog */
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  static String readString(ByteBuffer buf) {
+    int n = buf.getInt();
+    if (n < 0)
+      return null;
+    byte[] b = new byte[n];
+    buf.get(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,52 @@
+/* CorpusStats.java
+   Reports the size of an ArticleTable's corpus, its inverted index,
+   and its search cache. Every value is read when it is asked for.
+ */
+
+public class CorpusStats implements CorpusStatsMBean {
+
+  private final ArticleTable T;
+
+  public CorpusStats(ArticleTable T) {
+    this.T = T;
+  }
+
+  /* Returns the number of articles in the table */
+  public int getArticles() {
+    return T.size();
+  }
+
+  /* Returns the number of distinct terms in the index */
+  public int getTerms() {
+    return T.getIndex().size();
+  }
+
+  /* Returns the number of terms ever given an id, including ones no article uses any more */
+  public int getDictionaryTerms() {
+    return TermDictionary.shared().size();
+  }
+
+  /* Returns an estimate of the heap used by the index */
+  public long getIndexBytes() {
+    return T.getIndex().memoryBytes();
+  }
+
+  public int getCacheSize() {
+    return T.getCache().size();
+  }
+
+  public long getCacheHits() {
+    return T.getCache().hits();
+  }
+
+  public long getCacheMisses() {
+    return T.getCache().misses();
+  }
+
+  /* Returns the fraction of searches answered from the cache */
+  public double getCacheHitRate() {
+    long hits = getCacheHits();
+    long total = hits + getCacheMisses();
+    return (total == 0) ? 0 : (double) hits / total;
+  }
+}
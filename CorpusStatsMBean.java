@@ -0,0 +1,15 @@
+/* CorpusStatsMBean.java
+   The attributes of a CorpusStats shown over JMX: the size of the corpus,
+   the index and the search cache.
+ */
+
+public interface CorpusStatsMBean {
+  int getArticles();
+  int getTerms();
+  int getDictionaryTerms();
+  long getIndexBytes();
+  int getCacheSize();
+  long getCacheHits();
+  long getCacheMisses();
+  double getCacheHitRate();
+}
@@ -0,0 +1,26 @@
+/* CosineScorer.java
+   Scores articles by the cosine similarity of their raw term counts
+   to the search phrase's term counts. This is Javapedia's original
+   ranking; common words are only kept out by the analyzer's blacklist.
+ */
+
+public class CosineScorer implements Scorer {
+
+  public String name() {
+    return "cosine similarity";
+  }
+
+  public double weight(int queryFreq, int termFreq, int docFreq, TermVector doc, InvertedIndex index) {
+    return (double) queryFreq * termFreq;
+  }
+
+  public double finish(double sum, TermVector query, TermVector doc, InvertedIndex index) {
+    if (query.norm() == 0 || doc.norm() == 0)
+      return 0;
+    return sum / (query.norm() * doc.norm());
+  }
+
+  public boolean allowsPruning() {
+    return false;
+  }
+}
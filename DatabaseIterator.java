@@ -39,21 +39,14 @@ public class DatabaseIterator implements Iterator<Article> {
     */
     public Article next() {
         File thisFile = children[next];
-        Scanner s = null;
+        Article a = null;
 
         try {
-            s = new Scanner(thisFile, "UTF-8");
-        } catch (FileNotFoundException e) {
+            a = CorpusLoader.read(thisFile); // whole file at once, no line-by-line concatenation
+        } catch (IOException e) {
             throw new RuntimeException("child does not exist -- " +
                                        "was it deleted?");
         }
-        String title = s.nextLine();
-        String body = "";
-
-        while (s.hasNextLine())
-            body += s.nextLine() + "\n";
-
-        Article a = new Article(title, body);
 
         next++;
         return a;
@@ -79,20 +72,6 @@ public class DatabaseIterator implements Iterator<Article> {
 
     */
     private File[] findChildren(String path) throws IllegalArgumentException {
-        File dir = new File(path);
-
-        if (!dir.exists())
-            throw new IllegalArgumentException("directory does not exist");
-
-        if (!dir.isDirectory())
-            throw new IllegalArgumentException("path does not refer to " +
-                                               "a directory");
-        File[] cs = dir.listFiles();
-
-        if (cs == null)
-            throw new RuntimeException("an error occured getting files " +
-                                       "under directory");
-
-        return cs;
+        return CorpusLoader.listArticles(path);
     }
 }
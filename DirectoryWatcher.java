@@ -0,0 +1,241 @@
+/* DirectoryWatcher.java
+   Keeps a table in step with its articles directory while Javapedia runs,
+   so that files added, edited, or removed by other programs become
+   searchable (or stop being found) without a restart.
+
+   A background thread waits on a WatchService. Events usually come in
+   bursts (a copy of many files, or an editor saving in several steps), so
+   after the first one it keeps collecting until the directory has been
+   quiet for QUIET_MS, or MAX_DELAY_MS have passed, and then handles every
+   file named in the burst once. Each changed file is read, parsed and
+   tokenized on the watcher thread before the table is touched; the table
+   and index are then changed one article at a time, as any other update,
+   so searches running meanwhile are never held up for a whole batch.
+
+   The table must be a ConcurrentArticleHashTable, since the menu or the
+   server keep using it while the watcher changes it.
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class DirectoryWatcher implements Closeable {
+
+  private static final long QUIET_MS = 200;       // a burst of events ends after this long without one
+  private static final long MAX_DELAY_MS = 2000;  // longest a change waits while events keep coming
+
+  private final ConcurrentArticleHashTable T;
+  private final Path dir;
+  private final WatchService watcher;
+  private final Map<String, String> titles = new HashMap<String, String>(); // filename -> title in T
+  private Thread thread;
+
+  // guarded by this, so that a reader sees the counts of every batch whose changes it has seen
+  private long batches = 0;
+  private long files = 0;
+  private boolean reloading = false;
+
+  /* @param: T   The table loaded from the directory
+     @param: dir The articles directory
+  */
+  public DirectoryWatcher(ConcurrentArticleHashTable T, String dir) throws IOException {
+    this.T = T;
+    this.dir = Paths.get(dir);
+    this.watcher = FileSystems.getDefault().newWatchService();
+    this.dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                      StandardWatchEventKinds.ENTRY_DELETE);
+    for (Article a : T)
+      if (a.getFilename() != null)
+        titles.put(a.getFilename(), a.getTitle());
+  }
+
+  /* Starts watching on a daemon thread */
+  public synchronized void start() {
+    if (thread != null)
+      return;
+    thread = new Thread("directory-watcher") {
+      public void run() {
+        try {
+          while (true)
+            reload(nextBurst());
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+          // closed
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /* nextBurst waits for an event, then collects events until the directory
+     is quiet, and returns the names of the files they were about
+  */
+  private Set<String> nextBurst() throws InterruptedException {
+    Set<String> names = new HashSet<String>();
+    WatchKey key = watcher.take();
+    long deadline = System.currentTimeMillis() + MAX_DELAY_MS;
+    while (key != null) {
+      for (WatchEvent<?> e : key.pollEvents()) {
+        if (e.kind() == StandardWatchEventKinds.OVERFLOW) { // events were lost, so look at everything
+          names.addAll(titles.keySet());
+          String[] all = dir.toFile().list();
+          if (all != null)
+            names.addAll(Arrays.asList(all));
+        } else {
+          names.add(((Path) e.context()).getFileName().toString());
+        }
+      }
+      key.reset();
+      long left = deadline - System.currentTimeMillis();
+      key = (left > 0) ? watcher.poll(Math.min(QUIET_MS, left), TimeUnit.MILLISECONDS) : null;
+    }
+    return names;
+  }
+
+  /* reload brings the table up to date with the named files. The files are
+     all read and tokenized first; only then are articles replaced, added,
+     or deleted. A file whose first line (its title) changed replaces the
+     article with the old title.
+  */
+  void reload(Set<String> names) {
+    synchronized (this) {
+      reloading = true;
+    }
+    Map<String, Article> read = new HashMap<String, Article>();
+    for (String name : names) {
+      if (name.endsWith(".tmp") || name.startsWith("."))  // half-written files, e.g. ArticleLog's
+        continue;
+      File f = dir.resolve(name).toFile();
+      if (!f.isFile()) {
+        read.put(name, null);
+        continue;
+      }
+      try {
+        Article a = CorpusLoader.read(f);
+        a.getVector();               // tokenize here, not while the index is locked
+        read.put(name, a);
+      } catch (IOException e) {
+        if (!f.exists())             // deleted since the event
+          read.put(name, null);
+        else
+          System.err.println("Could not reload " + f + ": " + e.getMessage());
+      }
+    }
+
+    for (Map.Entry<String, Article> e : read.entrySet()) {
+      String name = e.getKey();
+      Article a = e.getValue();
+      String oldTitle = titles.get(name);
+      if (oldTitle != null && (a == null || !oldTitle.equals(a.getTitle()))) {
+        Article old = T.lookup(oldTitle);
+        if (old != null && name.equals(old.getFilename()))  // still the article from this file
+          T.delete(oldTitle);
+        titles.remove(name);
+      }
+      if (a != null) {
+        T.update(a);
+        titles.put(name, a.getTitle());
+      }
+    }
+    synchronized (this) {
+      files += read.size();
+      ++batches;
+      reloading = false;
+      notifyAll();
+    }
+  }
+
+  /* Returns the number of bursts of events handled so far */
+  public synchronized long getBatches() {
+    return batches;
+  }
+
+  /* Returns the number of files reloaded or removed so far */
+  public synchronized long getFiles() {
+    return files;
+  }
+
+  /* awaitReloaded waits until no burst is being reloaded, so that every
+     change already seen in the table is counted by getBatches and getFiles
+
+     @param:  timeoutMs The longest to wait
+     @return:           false if a reload was still running when it ran out
+  */
+  synchronized boolean awaitReloaded(long timeoutMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    for (long left = timeoutMs; reloading && left > 0; left = deadline - System.currentTimeMillis())
+      wait(left);
+    return !reloading;
+  }
+
+  /* Stops watching */
+  public void close() throws IOException {
+    watcher.close();
+    synchronized (this) {
+      if (thread != null)
+        thread.interrupt();
+    }
+  }
+
+
+  /* Main method with unit tests, run in a temporary directory */
+  public static void main(String[] args) throws Exception {
+    Path tmp = Files.createTempDirectory("javapedia-watch");
+    Files.write(tmp.resolve("Cars.txt"), "Cars\nCars have wheels\n".getBytes("UTF-8"));
+    Files.write(tmp.resolve("Boats.txt"), "Boats\nBoats float\n".getBytes("UTF-8"));
+    ConcurrentArticleHashTable T = new ConcurrentArticleHashTable();
+    T.initialize(CorpusLoader.load(tmp.toString()));
+    DirectoryWatcher w = new DirectoryWatcher(T, tmp.toString());
+    w.start();
+
+    try {
+      System.out.println("Testing a new file, should find Trucks by title and by search:");
+      Files.write(tmp.resolve("Trucks.txt"), "Trucks\nTrucks carry cargo\n".getBytes("UTF-8"));
+      waitFor(T, "Trucks", true);
+      System.out.println(T.member("Trucks") + " " + Javapedia.phraseSearch("cargo", T).contains("Trucks"));
+
+      System.out.println("Testing an edited file, should find the new body:");
+      long before = w.getBatches();
+      Files.write(tmp.resolve("Cars.txt"), "Cars\nCars have electric motors\n".getBytes("UTF-8"));
+      for (int i = 0; i < 500 && w.getBatches() == before; ++i)
+        Thread.sleep(20);
+      System.out.println(Javapedia.phraseSearch("electric", T).contains("Cars"));
+
+      System.out.println("Testing a changed title, should drop Boats and add Ships:");
+      Files.write(tmp.resolve("Boats.txt"), "Ships\nShips float\n".getBytes("UTF-8"));
+      waitFor(T, "Ships", true);
+      System.out.println(!T.member("Boats") + " " + T.member("Ships"));
+
+      System.out.println("Testing a deleted file, should drop Trucks:");
+      Files.delete(tmp.resolve("Trucks.txt"));
+      waitFor(T, "Trucks", false);
+      System.out.println(!T.member("Trucks"));
+
+      System.out.println("Testing a burst of 200 files, should add all 200 in far fewer batches:");
+      before = w.getBatches();
+      for (int i = 0; i < 200; ++i)
+        Files.write(tmp.resolve("Article " + i + ".txt"), ("Article " + i + "\nbody " + i + "\n").getBytes("UTF-8"));
+      waitFor(T, "Article 199", true);
+      for (int i = 0; i < 500 && T.size() < 202; ++i)
+        Thread.sleep(20);
+      w.awaitReloaded(10000);        // the batch that added the last file has finished counting
+      System.out.println(T.size() + " articles, " + ((w.getBatches() - before) < 20) + " (" +
+                         (w.getBatches() - before) + " batches)");
+    } finally {
+      w.close();
+      Files.walk(tmp).sorted(Comparator.reverseOrder()).forEach(new java.util.function.Consumer<Path>() {
+        public void accept(Path p) {
+          p.toFile().delete();
+        }
+      });
+    }
+  }
+
+  // test helper: waits up to 10 seconds for an article to appear or disappear
+  private static void waitFor(ArticleTable T, String title, boolean present) throws InterruptedException {
+    for (int i = 0; i < 500 && T.member(title) != present; ++i)
+      Thread.sleep(20);
+  }
+}
@@ -0,0 +1,348 @@
+/* DocIterator.java
+   Walks, in increasing order, the doc ids of the articles matching part of
+   a BooleanQuery. Iterators are lazy: nothing is decoded until next or
+   advance asks for it, and an iterator can be told to jump ahead to a doc
+   id, passing over whole blocks of postings by their skip pointers (see
+   PostingList). Iterators combine like the query's clauses:
+
+     Term    the articles containing one term
+     Phrase  the articles containing a quoted phrase
+     And     the articles every child matches (required clauses)
+     Or      the articles any child matches (optional clauses)
+     AndNot  the articles one child matches and another does not (excluded clauses)
+     All     every article in the index
+
+   And moves its cheapest child first and only asks the others to advance
+   to where it is, so an intersection costs about the length of its
+   shortest postings list, whatever the lengths of the others.
+
+   An iterator is only valid while the index's read lock is held.
+ */
+
+import java.util.*;
+
+public abstract class DocIterator {
+
+  public static final int END = Integer.MAX_VALUE;  // returned once there are no more matches
+
+  protected int doc = -1;   // current doc id, -1 before the first
+
+  /* Moves to the next match and returns its doc id, or END */
+  public abstract int next();
+
+  /* Moves to the first match with a doc id of at least target, which must
+     be greater than the current one, and returns it, or END
+  */
+  public abstract int advance(int target);
+
+  /* Returns an upper bound on the number of matches, to order children */
+  public abstract long cost();
+
+  public int doc() {
+    return doc;
+  }
+
+  /* Moves a child to target unless it is already there or past it */
+  static int catchUp(DocIterator it, int target) {
+    return (it.doc < target) ? it.advance(target) : it.doc;
+  }
+
+
+  /* Empty matches nothing, e.g. a term no article contains */
+  static class Empty extends DocIterator {
+    public int next() {
+      return doc = END;
+    }
+
+    public int advance(int target) {
+      return doc = END;
+    }
+
+    public long cost() {
+      return 0;
+    }
+  }
+
+  /* Term walks one postings list, skipping removed articles */
+  static class Term extends DocIterator {
+    private final PostingList list;
+    private final BitSet alive;
+    private final PostingList.Cursor c = new PostingList.Cursor();
+
+    Term(PostingList list, BitSet alive) {
+      this.list = list;
+      this.alive = alive;
+      c.reset(list);
+    }
+
+    public int next() {
+      while (c.next())
+        if (alive.get(c.doc()))
+          return doc = c.doc();
+      return doc = END;
+    }
+
+    public int advance(int target) {
+      if (target == END || !c.advance(target))
+        return doc = END;
+      return alive.get(c.doc()) ? (doc = c.doc()) : next();
+    }
+
+    public long cost() {
+      return list.size();
+    }
+  }
+
+  /* Phrase finds the articles containing every term of a phrase, as And
+     does, and then compares the terms' positions in each of them
+  */
+  static class Phrase extends DocIterator {
+    private final PhraseQuery p;
+    private final PostingList.Cursor[] cs;  // one per term, in phrase order
+    private final PostingList.Cursor lead;  // the rarest term's
+    private final PostingList.Cursor[] rest;
+    private final BitSet alive;
+    private final long cost;
+    private int[][] reach = { new int[16], new int[16] };  // scratch for positionsMatch
+
+    /* @param: lists The postings list of each term of p, none null */
+    Phrase(PhraseQuery p, PostingList[] lists, BitSet alive) {
+      this.p = p;
+      this.alive = alive;
+      int n = p.size();
+      cs = new PostingList.Cursor[n];
+      int rarest = 0;
+      for (int j = 0; j < n; ++j) {
+        cs[j] = new PostingList.Cursor();
+        cs[j].reset(lists[j]);
+        if (lists[j].size() < lists[rarest].size())
+          rarest = j;
+      }
+      lead = cs[rarest];
+      rest = new PostingList.Cursor[n - 1];
+      for (int j = 0, r = 0; j < n; ++j)
+        if (j != rarest)
+          rest[r++] = cs[j];
+      cost = lists[rarest].size();
+    }
+
+    public int next() {
+      return align(lead.next() ? lead.doc() : END);
+    }
+
+    public int advance(int target) {
+      return align((target != END && lead.advance(target)) ? lead.doc() : END);
+    }
+
+    /* align moves the other cursors to the lead's doc id d, or the lead on to
+       theirs, until all are on one article whose positions match
+    */
+    private int align(int d) {
+      while (d != END) {
+        boolean all = true;
+        for (int j = 0; j < rest.length && all; ++j) {
+          if (!rest[j].advance(d))
+            return doc = END;
+          if (rest[j].doc() > d) {               // the lead has to catch up
+            d = lead.advance(rest[j].doc()) ? lead.doc() : END;
+            all = false;
+          }
+        }
+        if (!all)
+          continue;
+        if (alive.get(d) && (cs.length == 1 || positionsMatch()))
+          return doc = d;
+        d = lead.next() ? lead.doc() : END;
+      }
+      return doc = END;
+    }
+
+    /* positionsMatch tells whether the terms, whose cursors are all on the
+       same article, appear there in order at the phrase's offsets (give or
+       take its slop). It starts from the positions of the term that occurs
+       least often in the article, and reach holds the positions where the
+       phrase so far can be. Walking back to the first term keeps only the
+       positions close enough before the rarest term's; walking forward
+       again keeps the rarest term's positions that a whole prefix leads
+       to, and then the positions of each later term that follow them.
+    */
+    private boolean positionsMatch() {
+      int k = 0;
+      for (int j = 1; j < cs.length; ++j)
+        if (cs[j].positions() < cs[k].positions())
+          k = j;
+      int r = cs[k].positions();
+      if (reach[0].length < r)
+        reach[0] = new int[r];
+      System.arraycopy(cs[k].positionBuffer(), 0, reach[0], 0, r);
+      for (int j = k - 1; j >= 0 && r > 0; --j)
+        r = keep(r, cs[j], p.offsets[j] - p.offsets[j + 1]);
+      for (int j = 1; j < cs.length && r > 0; ++j)
+        r = keep(r, cs[j], p.offsets[j] - p.offsets[j - 1]);
+      return r > 0;
+    }
+
+    /* keep replaces the first r positions in reach with those of c that lie
+       gap words after one of them, give or take the slop, in one merge-like
+       pass over both lists. A negative gap looks back instead.
+
+       @param: r The number of positions in reach[0]
+       @param: c The cursor of the next term, on the same article
+       @param: gap How far the next term is from the last in the phrase
+       @return: The number of positions kept
+    */
+    private int keep(int r, PostingList.Cursor c, int gap) {
+      int lo = (gap > 0) ? gap : gap - p.slop;  // the distances from a reach
+      int hi = (gap > 0) ? gap + p.slop : gap;  // position allowed for a kept one
+      int m = c.positions();
+      int[] next = c.positionBuffer();
+      if (reach[1].length < m)
+        reach[1] = new int[m];
+      int kept = 0;
+      int i = 0;
+      for (int t = 0; t < m; ++t) {
+        int q = next[t];
+        while (i < r && reach[0][i] < q - hi)
+          ++i;
+        if (i < r && reach[0][i] <= q - lo)
+          reach[1][kept++] = q;
+      }
+      int[] swap = reach[0];
+      reach[0] = reach[1];
+      reach[1] = swap;
+      return kept;
+    }
+
+    public long cost() {
+      return cost;
+    }
+  }
+
+  /* And matches the doc ids all of its children match. The cheapest child
+     leads; each other child advances to the lead's doc id, and if one goes
+     past it the lead advances to that one instead (leapfrogging).
+  */
+  static class And extends DocIterator {
+    private final DocIterator[] its;  // cheapest first
+
+    And(List<DocIterator> children) {
+      its = children.toArray(new DocIterator[children.size()]);
+      Arrays.sort(its, new Comparator<DocIterator>() {
+        public int compare(DocIterator x, DocIterator y) {
+          return Long.compare(x.cost(), y.cost());
+        }
+      });
+    }
+
+    public int next() {
+      return align(its[0].next());
+    }
+
+    public int advance(int target) {
+      return align(its[0].advance(target));
+    }
+
+    private int align(int d) {
+      outer:
+      while (d != END) {
+        for (int j = 1; j < its.length; ++j) {
+          int e = catchUp(its[j], d);
+          if (e == END)
+            return doc = END;
+          if (e > d) {
+            d = its[0].advance(e);
+            continue outer;
+          }
+        }
+        return doc = d;
+      }
+      return doc = END;
+    }
+
+    public long cost() {
+      return its[0].cost();
+    }
+  }
+
+  /* Or matches the doc ids any of its children match. Queries have few
+     optional clauses, so the children are simply compared in turn.
+  */
+  static class Or extends DocIterator {
+    private final DocIterator[] its;
+
+    Or(List<DocIterator> children) {
+      its = children.toArray(new DocIterator[children.size()]);
+    }
+
+    public int next() {
+      return (doc == END) ? END : advance(doc + 1);
+    }
+
+    public int advance(int target) {
+      int min = END;
+      for (DocIterator it : its)
+        min = Math.min(min, catchUp(it, target));
+      return doc = min;
+    }
+
+    public long cost() {
+      long sum = 0;
+      for (DocIterator it : its)
+        sum += it.cost();
+      return sum;
+    }
+  }
+
+  /* AndNot matches the doc ids that in matches and out does not. out only
+     advances to the doc ids in finds, so it costs no more than in.
+  */
+  static class AndNot extends DocIterator {
+    private final DocIterator in;
+    private final DocIterator out;
+
+    AndNot(DocIterator in, DocIterator out) {
+      this.in = in;
+      this.out = out;
+    }
+
+    public int next() {
+      return skip(in.next());
+    }
+
+    public int advance(int target) {
+      return skip(in.advance(target));
+    }
+
+    private int skip(int d) {
+      while (d != END && catchUp(out, d) == d)
+        d = in.next();
+      return doc = d;
+    }
+
+    public long cost() {
+      return in.cost();
+    }
+  }
+
+  /* All matches every article in the index, for queries that only exclude */
+  static class All extends DocIterator {
+    private final BitSet alive;
+
+    All(BitSet alive) {
+      this.alive = alive;
+    }
+
+    public int next() {
+      return (doc == END) ? END : advance(doc + 1);
+    }
+
+    public int advance(int target) {
+      int d = alive.nextSetBit(target);
+      return doc = (d < 0) ? END : d;
+    }
+
+    public long cost() {
+      return alive.cardinality();
+    }
+  }
+}
@@ -0,0 +1,755 @@
+/* InvertedIndex.java
+   A class that maps each term to the list of articles containing it
+   (its postings), along with how many times the term appears in each
+   article. Searches only need to look at the postings of the terms in
+   the search phrase instead of every article in the database.
+   The index also keeps the corpus statistics used by the scorers.
+
+   Every indexed article gets an integer doc id, in the order articles are
+   added, so each postings list is sorted by doc id. A search can then be
+   split into ranges of doc ids that are scored independently, in parallel.
+
+   Adding, updating, and removing an article only touches the postings of
+   that article's own terms, so edits are visible to the next search without
+   rebuilding anything. A removed article's postings are left in place and
+   skipped until its lists are compacted (see PostingList).
+
+   Terms are identified by their TermDictionary ids, so the postings are
+   an array indexed by id rather than a map keyed by String.
+
+   Searches with operators (see BooleanQuery) walk lazy DocIterators over
+   the postings instead: required terms are intersected starting from the
+   rarest, jumping over blocks of the others by their skip pointers, and
+   only the articles found are scored. The postings also hold where each
+   term appears in each article, so quoted phrases are answered from the
+   index alone.
+
+   The index also files each article's MinHash signature (see
+   MinHashIndex), so the articles related to one are found from a few
+   candidates rather than by comparing it with every other article.
+
+   The index is safe to share between threads: adding and removing articles
+   take a write lock, and searches take a read lock, so any number of
+   searches run at once but never see an article half added.
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+public class InvertedIndex {
+
+  // postings[id] is the postings list of the term with that TermDictionary id, null if no
+  // article contains it. The array only grows, under the write lock.
+  private volatile PostingList[] postings = new PostingList[1024];
+  private int numTerms = 0;  // number of non-null postings lists
+
+  private ArrayList<Article> docs = new ArrayList<Article>(); // article with each doc id, null once removed
+  private BitSet alive = new BitSet();                        // doc ids of articles still in the index
+  private final MinHashIndex signatures = new MinHashIndex(); // for related
+
+  private static final double MIN_SCORE = 0.001;  // articles scoring this or less are not matches
+  private static final int MIN_PARTITION = 1024;  // fewest doc ids worth handing to another thread
+  private static final int MIN_RENUMBER = 1024;   // fewest removed doc ids worth renumbering for
+
+  private volatile int numDocs = 0;       // number of articles in the index
+  private volatile long totalLength = 0;  // number of terms in all articles, counting repeats
+  private volatile long generation = 0;   // bumped by every change to the indexed articles
+
+  // Scorers read the statistics above from ForkJoin worker threads while a search holds
+  // the read lock, so those getters must never take the lock themselves.
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // query terms found in more than this fraction of articles are skipped by scorers that allow it
+  private double pruneRatio = 0.5;
+
+
+  /* Adds an article to the postings of every term in its body.
+
+     @param: a The Article object to be indexed
+  */
+  public void add(Article a) {
+    TermVector v = a.getVector(); // tokenize before locking, so searches are not held up
+    a.getSignature();
+    lock.writeLock().lock();
+    try {
+      addLocked(a, v);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void addLocked(Article a, TermVector v) {
+    int doc = docs.size();
+    docs.add(a);
+    alive.set(doc);
+    a.setDocId(doc);
+    signatures.add(doc, a.getSignature());
+
+    int[] pos = v.positions();   // null if the vector was built without them
+    for (int i = 0, from = 0; i < v.size(); from += v.freq(i++)) {
+      int id = v.termId(i);
+      if (id >= postings.length)
+        postings = Arrays.copyOf(postings, Math.max(2 * postings.length, id + 1));
+      PostingList list = postings[id];
+      if (list == null) { // first article containing this term
+        list = new PostingList();
+        postings[id] = list;
+        ++numTerms;
+      }
+      list.append(doc, v.freq(i), pos, from); // doc is the largest id so far, keeping the list sorted
+    }
+    ++numDocs;
+    totalLength += v.length();
+    ++generation;
+  }
+
+  /* Removes an article from the index. Its postings are marked dead rather
+     than deleted, and each of its terms' lists is compacted once it holds
+     more dead entries than live ones. Terms that no longer appear in any
+     article are dropped. Once most doc ids belong to removed articles, the
+     rest are renumbered (see renumberLocked).
+
+     @param: a The Article object to be removed
+  */
+  public void remove(Article a) {
+    lock.writeLock().lock();
+    try {
+      removeLocked(a);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void removeLocked(Article a) {
+    int doc = a.getDocId();
+    if (doc < 0 || doc >= docs.size() || docs.get(doc) != a) // not in this index
+      return;
+    docs.set(doc, null);
+    alive.clear(doc);
+    a.setDocId(-1);
+    signatures.remove(doc);
+
+    TermVector v = a.getVector();
+    for (int i = 0; i < v.size(); ++i) {
+      PostingList list = postings(v.termId(i));
+      if (list == null)
+        continue;
+      list.markRemoved();
+      if (list.docFreq() == 0) {
+        postings[v.termId(i)] = null;
+        --numTerms;
+      }
+      else if (list.needsCompaction())
+        list.compact(alive);
+    }
+    --numDocs;
+    totalLength -= v.length();
+    ++generation;
+    if (docs.size() - numDocs > Math.max(MIN_RENUMBER, numDocs))
+      renumberLocked();
+  }
+
+  /* renumberLocked gives the articles still in the index the doc ids 0 to
+     numDocs - 1, keeping their order, and rewrites every postings list and
+     the MinHash index to match. An update removes the old article and adds
+     the new one under a fresh doc id, so without this docs, alive and the
+     signatures would grow with every edit. Its cost is about that of
+     indexing the remaining articles again, paid once per numDocs removals.
+  */
+  private void renumberLocked() {
+    int[] renumber = new int[docs.size()];
+    ArrayList<Article> kept = new ArrayList<Article>(numDocs);
+    for (int doc = 0; doc < docs.size(); ++doc) {
+      Article a = docs.get(doc);
+      if (a == null)
+        continue;
+      renumber[doc] = kept.size();
+      a.setDocId(kept.size());
+      kept.add(a);
+    }
+    for (PostingList list : postings)
+      if (list != null)
+        list.compact(alive, renumber);
+    signatures.clear();
+    for (int doc = 0; doc < kept.size(); ++doc)
+      signatures.add(doc, kept.get(doc).getSignature());
+    docs = kept;
+    alive = new BitSet(kept.size());
+    alive.set(0, kept.size());
+    ++generation;
+  }
+
+  /* update replaces an article with a new version in one step, so a search
+     sees either the old article or the new one, never neither.
+
+     @param: old The Article object currently in the index
+     @param: a   The Article object replacing it
+  */
+  public void update(Article old, Article a) {
+    TermVector v = a.getVector();
+    a.getSignature();
+    lock.writeLock().lock();
+    try {
+      removeLocked(old);
+      addLocked(a, v);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /* candidates returns every article that contains at least one term of
+     the search phrase. Any other article has a cosine similarity of 0.
+
+     @param:  query The term vector of the search phrase
+     @return: found The matching articles, each listed once
+  */
+  public Collection<Article> candidates(TermVector query) {
+    lock.readLock().lock();
+    try {
+      Set<Article> found = Collections.newSetFromMap(new IdentityHashMap<Article, Boolean>());
+      PostingList.Cursor c = new PostingList.Cursor();
+      for (int i = 0; i < query.size(); ++i) {
+        PostingList list = postings(query.termId(i));
+        if (list == null)
+          continue;
+        c.reset(list);
+        while (c.next())
+          if (alive.get(c.doc()))
+            found.add(docs.get(c.doc()));
+      }
+      return found;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /* search returns the k articles that score highest against the query.
+     The query terms' postings are walked together in doc id order; each
+     article's term weights are added up as the walk reaches it, then the
+     scorer finishes the total.
+
+     @param:  query  The term vector of the search phrase
+     @param:  scorer The ranking function
+     @param:  k      The number of matches wanted
+     @return: hits   The best matches, highest score first
+  */
+  public List<SearchHit> search(TermVector query, Scorer scorer, int k) {
+    return search(query, scorer, k, null);
+  }
+
+  /* Same as previous, but only articles matching filter are ranked. If
+     filter is null or plain, this is the same as search(query, scorer, k).
+  */
+  public List<SearchHit> search(TermVector query, Scorer scorer, int k, BooleanQuery filter) {
+    lock.readLock().lock();
+    try {
+      if (filter != null && !filter.isPlain())
+        return toHits(searchMatches(query, scorer, k, termPostings(query, scorer), iterator(filter)));
+      return toHits(searchRange(query, scorer, k, termPostings(query, scorer), 0, docs.size()));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /* parallelSearch returns the same matches as search, but splits the doc
+     ids into partitions that are scored on the common ForkJoinPool. Each
+     partition walks its own cursors and keeps its own top k, and the
+     partitions' results are merged, so no state is shared between threads.
+     The read lock held by the calling thread keeps the index unchanged
+     while the partitions run.
+  */
+  public List<SearchHit> parallelSearch(TermVector query, Scorer scorer, int k) {
+    return parallelSearch(query, scorer, k, null);
+  }
+
+  /* Same as previous, but only articles matching filter are ranked. A
+     filter with operators only scores the articles it finds, which is
+     cheap enough to do on the calling thread.
+  */
+  public List<SearchHit> parallelSearch(TermVector query, Scorer scorer, int k, BooleanQuery filter) {
+    if (filter != null && !filter.isPlain())
+      return search(query, scorer, k, filter);
+    lock.readLock().lock();
+    try {
+      int partitions = 4 * ForkJoinPool.getCommonPoolParallelism();
+      int partitionSize = Math.max(MIN_PARTITION, (docs.size() + partitions - 1) / partitions);
+      return toHits(ForkJoinPool.commonPool().invoke(
+        new SearchTask(query, scorer, k, termPostings(query, scorer), 0, docs.size(), partitionSize)));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /* SearchTask scores the doc ids in [lo, hi), splitting the range in half
+     until it is no bigger than partitionSize.
+  */
+  private class SearchTask extends RecursiveTask<TopKCollector> {
+    private static final long serialVersionUID = 1L;   // tasks are never serialized; RecursiveTask is Serializable
+
+    TermVector query;
+    Scorer scorer;
+    int k;
+    List<PostingList> lists;
+    int lo, hi, partitionSize;
+
+    SearchTask(TermVector query, Scorer scorer, int k, List<PostingList> lists,
+               int lo, int hi, int partitionSize) {
+      this.query = query;
+      this.scorer = scorer;
+      this.k = k;
+      this.lists = lists;
+      this.lo = lo;
+      this.hi = hi;
+      this.partitionSize = partitionSize;
+    }
+
+    protected TopKCollector compute() {
+      if (hi - lo <= partitionSize)
+        return searchRange(query, scorer, k, lists, lo, hi);
+
+      int mid = (lo + hi) >>> 1;
+      SearchTask left = new SearchTask(query, scorer, k, lists, lo, mid, partitionSize);
+      left.fork();
+      TopKCollector top = new SearchTask(query, scorer, k, lists, mid, hi, partitionSize).compute();
+      top.collectAll(left.join());
+      return top;
+    }
+  }
+
+  /* termPostings returns the postings list to walk for each query term, or
+     null for terms that are not indexed. If the scorer allows it, terms found
+     in more than pruneRatio of all articles are skipped too, unless that
+     would leave no terms at all.
+  */
+  private List<PostingList> termPostings(TermVector query, Scorer scorer) {
+    boolean prune = scorer.allowsPruning() && !allCommon(query);
+    List<PostingList> lists = new ArrayList<PostingList>(query.size());
+    for (int i = 0; i < query.size(); ++i) {
+      PostingList list = postings(query.termId(i));
+      if (list != null && prune && isCommon(list.docFreq()))
+        list = null;
+      lists.add(list);
+    }
+    return lists;
+  }
+
+  /* searchRange scores the articles with doc ids in [lo, hi) and returns
+     the best k of them. The query terms' cursors are merged by doc id, so
+     each article is finished as soon as the cursors move past it, and no
+     running totals are kept for the range.
+  */
+  private TopKCollector searchRange(TermVector query, Scorer scorer, int k,
+                                      List<PostingList> lists, int lo, int hi) {
+    TopKCollector top = new TopKCollector(k);
+    int n = query.size();
+    PostingList.Cursor[] cursors = new PostingList.Cursor[n];
+    int[] at = new int[n];           // doc id each cursor is on, END once past hi
+    for (int i = 0; i < n; ++i) {
+      at[i] = DocIterator.END;
+      if (lists.get(i) == null)
+        continue;
+      cursors[i] = new PostingList.Cursor();
+      cursors[i].reset(lists.get(i));
+      if (cursors[i].advance(lo) && cursors[i].doc() < hi)  // skip blocks before the range
+        at[i] = cursors[i].doc();
+    }
+
+    while (true) {
+      int doc = DocIterator.END;
+      for (int i = 0; i < n; ++i)
+        doc = Math.min(doc, at[i]);
+      if (doc == DocIterator.END)
+        break;
+      boolean live = alive.get(doc);   // false if the article was removed
+      TermVector v = live ? docs.get(doc).getVector() : null;
+      double sum = 0;
+      for (int i = 0; i < n; ++i) {
+        if (at[i] != doc)
+          continue;
+        PostingList.Cursor c = cursors[i];
+        if (live)
+          sum += scorer.weight(query.freq(i), c.freq(), lists.get(i).docFreq(), v, this);
+        at[i] = (c.next() && c.doc() < hi) ? c.doc() : DocIterator.END;
+      }
+      if (live) {
+        double score = scorer.finish(sum, query, v, this);
+        if (score > MIN_SCORE)
+          top.collect(doc, score);
+      }
+    }
+    return top;
+  }
+
+  /* searchMatches scores only the articles found by matches, one at a
+     time. Each query term's cursor advances to the article, skipping the
+     blocks in between, so the work follows the number of matches rather
+     than the lengths of the postings lists.
+  */
+  private TopKCollector searchMatches(TermVector query, Scorer scorer, int k,
+                                      List<PostingList> lists, DocIterator matches) {
+    TopKCollector top = new TopKCollector(k);
+    if (query.size() == 0)      // only excluded words, nothing to rank by
+      return top;
+    PostingList.Cursor[] cursors = new PostingList.Cursor[query.size()];
+    for (int i = 0; i < cursors.length; ++i) {
+      if (lists.get(i) != null) {
+        cursors[i] = new PostingList.Cursor();
+        cursors[i].reset(lists.get(i));
+      }
+    }
+
+    for (int doc = matches.next(); doc != DocIterator.END; doc = matches.next()) {
+      TermVector v = docs.get(doc).getVector();
+      double sum = 0;
+      for (int i = 0; i < cursors.length; ++i) {
+        PostingList.Cursor c = cursors[i];
+        if (c == null)
+          continue;
+        if (!c.advance(doc))                  // no more articles with this term
+          cursors[i] = null;
+        else if (c.doc() == doc)
+          sum += scorer.weight(query.freq(i), c.freq(), lists.get(i).docFreq(), v, this);
+      }
+      double score = scorer.finish(sum, query, v, this);
+      if (score > MIN_SCORE)
+        top.collect(doc, score);
+    }
+    return top;
+  }
+
+  /* iterator builds the DocIterator finding the articles that match a
+     query: its required clauses intersected, or else its optional ones
+     merged, less any excluded ones. Must be called with the read lock held.
+  */
+  private DocIterator iterator(BooleanQuery q) {
+    List<DocIterator> must = new ArrayList<DocIterator>();
+    List<DocIterator> should = new ArrayList<DocIterator>();
+    List<DocIterator> not = new ArrayList<DocIterator>();
+    for (BooleanQuery.Clause c : q.clauses()) {
+      DocIterator it = iterator(c);
+      if (c.occur == BooleanQuery.MUST)
+        must.add(it);
+      else if (c.occur == BooleanQuery.SHOULD)
+        should.add(it);
+      else
+        not.add(it);
+    }
+
+    DocIterator found;
+    if (!must.isEmpty())
+      found = (must.size() == 1) ? must.get(0) : new DocIterator.And(must);
+    else if (!should.isEmpty())
+      found = (should.size() == 1) ? should.get(0) : new DocIterator.Or(should);
+    else
+      found = new DocIterator.All(alive);
+    if (!not.isEmpty())
+      found = new DocIterator.AndNot(found, (not.size() == 1) ? not.get(0) : new DocIterator.Or(not));
+    return found;
+  }
+
+  private DocIterator iterator(BooleanQuery.Clause c) {
+    if (c.group != null)
+      return iterator(c.group);
+    if (c.phrase != null) {
+      PostingList[] lists = new PostingList[c.phrase.size()];
+      for (int j = 0; j < lists.length; ++j) {
+        lists[j] = postings(c.phrase.ids[j]);
+        if (lists[j] == null)                   // a term no article contains
+          return new DocIterator.Empty();
+      }
+      return new DocIterator.Phrase(c.phrase, lists, alive);
+    }
+    PostingList list = postings(c.id);
+    return (list == null) ? new DocIterator.Empty() : new DocIterator.Term(list, alive);
+  }
+
+  /* related returns the k articles most similar to a, by the cosine
+     similarity of their bodies. Only the articles whose MinHash signatures
+     share a band with a's are compared, so a few articles that share
+     little vocabulary with a may be missed.
+
+     @param:  a    The article, which need not be in the index
+     @param:  k    The number of related articles wanted
+     @return: hits The most similar articles other than a, most similar first
+  */
+  public List<SearchHit> related(Article a, int k) {
+    TermVector v = a.getVector();
+    int[] sig = a.getSignature();
+    lock.readLock().lock();
+    try {
+      BitSet found = new BitSet();
+      signatures.candidates(sig, found);
+      TopKCollector top = new TopKCollector(k);
+      for (int doc = found.nextSetBit(0); doc >= 0; doc = found.nextSetBit(doc + 1)) {
+        Article b = docs.get(doc);
+        if (b == a || b.getTitle().equals(a.getTitle()))
+          continue;
+        double score = v.cosineSimilarity(b.getVector());
+        if (score > MIN_SCORE)
+          top.collect(doc, score);
+      }
+      return toHits(top);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /* Turns the pairs kept by a collector into hits, best first */
+  private List<SearchHit> toHits(TopKCollector top) {
+    int[] ids = new int[top.size()];
+    double[] scores = new double[top.size()];
+    int n = top.drain(ids, scores);
+    List<SearchHit> hits = new ArrayList<SearchHit>(n);
+    for (int i = 0; i < n; ++i)
+      hits.add(new SearchHit(docs.get(ids[i]), scores[i]));
+    return hits;
+  }
+
+  /* Returns true if a term in docFreq articles is too common to be worth scoring */
+  private boolean isCommon(int docFreq) {
+    return docFreq > pruneRatio * numDocs;
+  }
+
+  /* Returns true if every query term that is in the index is too common */
+  private boolean allCommon(TermVector query) {
+    for (int i = 0; i < query.size(); ++i) {
+      int df = docFreq(query.termId(i));
+      if (df > 0 && !isCommon(df))
+        return false;
+    }
+    return true;
+  }
+
+  public void setPruneRatio(double pruneRatio) {
+    this.pruneRatio = pruneRatio;
+  }
+
+  /* Returns a number that changes whenever an article is added, updated, or
+     removed, so results computed at one generation are valid until it changes
+  */
+  public long generation() {
+    return generation;
+  }
+
+  /* Returns the number of articles in the index */
+  public int numDocs() {
+    return numDocs;
+  }
+
+  /* Returns the average number of terms in an article */
+  public double avgDocLength() {
+    return (numDocs == 0) ? 0 : (double) totalLength / numDocs;
+  }
+
+  /* Returns the postings list of a term id, or null if no article contains it */
+  private PostingList postings(int id) {
+    PostingList[] p = postings;
+    return (id < 0 || id >= p.length) ? null : p[id];
+  }
+
+  /* Returns the number of articles containing the term with the given id */
+  public int docFreq(int id) {
+    PostingList list = postings(id);
+    return (list == null) ? 0 : list.docFreq();
+  }
+
+  /* Same as previous, but takes the term itself */
+  public int docFreq(String term) {
+    return docFreq(TermDictionary.shared().lookup(term));
+  }
+
+  /* memoryBytes estimates the heap taken by the index: the postings lists,
+     the table of lists, and the term vectors of the indexed articles.
+     Article text is not counted.
+  */
+  public long memoryBytes() {
+    lock.readLock().lock();
+    try {
+      long bytes = 16 + 4L * postings.length + 16 + 4L * docs.size() + alive.size() / 8;
+      for (PostingList list : postings)
+        if (list != null)
+          bytes += list.memoryBytes();
+      bytes += signatures.memoryBytes();
+      for (Article a : docs)
+        if (a != null)
+          bytes += 24 + 2 * (16 + 4L * a.getVector().size());
+      return bytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /* Returns the number of distinct terms in the index */
+  public int size() {
+    return numTerms;
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) {
+    InvertedIndex index = new InvertedIndex();
+    Article Cars = new Article("Cars", "Wheels are nice. Cars have wheels.");
+    Article Bikes = new Article("Bikes", "Bikes have two wheels");
+    Article Boats = new Article("Boats", "Boats float on water");
+
+    index.add(Cars);
+    index.add(Bikes);
+    index.add(Boats);
+
+    System.out.println("Testing docFreq, should be 2 1 0:");
+    System.out.println(index.docFreq("wheels") + " " + index.docFreq("bikes") + " " + index.docFreq("the"));
+    System.out.println();
+
+    System.out.println("Testing candidates for \"wheels\", should be Cars and Bikes:");
+    for (Article a : index.candidates(TermVector.of("Wheels!")))
+      System.out.println(a.getTitle());
+    System.out.println();
+
+    System.out.println("Testing remove, should find only Bikes:");
+    index.remove(Cars);
+    for (Article a : index.candidates(TermVector.of("wheels")))
+      System.out.println(a.getTitle());
+    System.out.println();
+
+    System.out.println("Testing candidates for \"the\", should find nothing:");
+    System.out.println(index.candidates(TermVector.of("the")).size());
+    System.out.println();
+
+    System.out.println("Testing corpus statistics after remove, should be 2 and 2.0:");
+    System.out.println(index.numDocs() + " and " + index.avgDocLength());
+    System.out.println();
+
+    System.out.println("Testing search for \"boats wheels\", cosine should tie all 3 at 0.5,\n" +
+                       "tf-idf and BM25 should skip the common term wheels and only find Boats:");
+    index.add(new Article("Trucks", "Trucks have wheels"));
+    Scorer [] scorers = { new CosineScorer(), new TfIdfScorer(), new Bm25Scorer() };
+    for (Scorer scorer : scorers) {
+      for (SearchHit h : index.search(TermVector.of("boats wheels"), scorer, 3))
+        System.out.print(h.getArticle().getTitle() + "=" + h.getScore() + " ");
+      System.out.println();
+    }
+    System.out.println();
+
+    System.out.println("Testing update, searching \"float\" should find Boats then nothing, \"sail\" should find Boats:");
+    Article Sailboats = new Article("Boats", "Boats sail");
+    System.out.println(index.search(TermVector.of("float"), new CosineScorer(), 3).size());
+    index.update(Boats, Sailboats);
+    System.out.println(index.search(TermVector.of("float"), new CosineScorer(), 3).size());
+    System.out.println(index.search(TermVector.of("sail"), new CosineScorer(), 3).get(0).getArticle().getTitle());
+    System.out.println();
+
+    System.out.println("Testing 5000 updates of 100 articles, doc ids should stay below 2200 and\n" +
+                       "\"edit49\" should find all 100, with related still working:");
+    InvertedIndex edited = new InvertedIndex();
+    Article[] current = new Article[100];
+    for (int i = 0; i < 100; ++i) {
+      current[i] = new Article("Edited " + i, "edit0 topic" + (i % 10) + " words about things");
+      edited.add(current[i]);
+    }
+    int highest = 0;
+    for (int round = 1; round < 50; ++round) {
+      for (int i = 0; i < 100; ++i) {
+        Article next = new Article("Edited " + i, "edit" + round + " topic" + (i % 10) + " words about things");
+        edited.update(current[i], next);
+        current[i] = next;
+        highest = Math.max(highest, next.getDocId());
+      }
+    }
+    System.out.println("highest doc id " + highest + ", " + edited.docs.size() + " ids in use, " +
+                       edited.search(TermVector.of("edit49"), new CosineScorer(), 200).size() + " found, " +
+                       edited.related(current[3], 20).size() + " related to Edited 3");
+    System.out.println();
+
+    System.out.println("Testing parallelSearch over 5000 articles, should match search:");
+    InvertedIndex big = new InvertedIndex();
+    Article[] bigArticles = new Article[5000];
+    for (int i = 0; i < 5000; ++i) {
+      bigArticles[i] = new Article("Article " + i, "term" + (i % 7) + " term" + (i % 11) + " filler");
+      big.add(bigArticles[i]);
+    }
+    TermVector q = TermVector.of("term3 term5");
+    List<SearchHit> seq = big.search(q, new Bm25Scorer(), 5);
+    List<SearchHit> par = big.parallelSearch(q, new Bm25Scorer(), 5);
+    for (int i = 0; i < seq.size(); ++i)
+      System.out.println(seq.get(i).getArticle().getTitle() + " " + seq.get(i).getScore() + " | " +
+                         par.get(i).getArticle().getTitle() + " " + par.get(i).getScore());
+    System.out.println();
+
+    System.out.println("Testing remove with compaction: keeping every 5th article, docFreq of term3 should be 221:");
+    for (int i = 0; i < 5000; ++i)
+      if (i % 5 != 0)
+        big.remove(bigArticles[i]);
+    int live = 0;
+    for (Article a : big.candidates(TermVector.of("term3")))
+      ++live;
+    System.out.println(big.docFreq("term3") + " (" + live + " found by candidates)");
+    System.out.println();
+
+    System.out.println("Testing quoted phrases, should find Space only, then both, then Rings only:");
+    InvertedIndex phrases = new InvertedIndex();
+    phrases.add(new Article("Space", "Outer space is where planets orbit."));
+    phrases.add(new Article("Diver", "Space diver jumped from the outer edge of space."));
+    phrases.add(new Article("Rings", "The Lord of the Rings is a long book."));
+    String[] queries = { "\"outer space\"", "\"outer space\"~5 planets", "\"lord of the rings\"",
+                         "\"space outer\"", "\"lord rings\"", "\"lord rings\"~2" };
+    for (String query : queries)
+      System.out.println(titles(phrases, query) + "| " + query);
+    System.out.println("(the last three should be nothing, nothing, Rings: out of order, and 3 words apart)");
+    System.out.println();
+
+    System.out.println("Testing operators, each should find the titles after the query:");
+    String[][] ops = {
+      { "+space -planets", "Diver" },
+      { "space NOT \"outer space\"", "Diver" },
+      { "lord OR planets", "Rings Space" },
+      { "space AND (orbit OR jumped)", "Diver Space" },
+      { "-space", "" },
+      { "+space +zyzzyva", "" },
+    };
+    for (String[] op : ops) {
+      String got = titles(phrases, op[0]);
+      System.out.println(op[0] + " -> " + got + (got.trim().equals(op[1]) ? "" : "   WRONG, expected " + op[1]));
+    }
+    System.out.println();
+
+    System.out.println("Testing AND over 5000 articles, should match a scan:");
+    BooleanQuery and = BooleanQuery.parse("+term3 +term5 +filler");
+    List<SearchHit> hits = big.search(TermVector.ofQuery(and.text()), new CosineScorer(), 1000, and);
+    int expected = 0;
+    for (int i = 0; i < 5000; i += 5)
+      if ((i % 7 == 3 && i % 11 == 5) || (i % 7 == 5 && i % 11 == 3))
+        ++expected;
+    System.out.println(hits.size() + " found, " + expected + " expected");
+    System.out.println();
+
+    System.out.println("Testing related, should be Space for Diver and nothing for Rings,\n" +
+                       "then Orbit and Diver for Space once Orbit is added, and only Diver once it is removed:");
+    Article orbit = new Article("Orbit", "Planets orbit in outer space.");
+    System.out.println(related(phrases, "Diver") + "| " + related(phrases, "Rings") + "|");
+    phrases.add(orbit);
+    System.out.println(related(phrases, "Space") + "|");
+    phrases.remove(orbit);
+    System.out.println(related(phrases, "Space") + "|");
+  }
+
+  // test helper: the titles of the articles related to the one with a title
+  private static String related(InvertedIndex index, String title) {
+    StringBuilder sb = new StringBuilder();
+    for (Article a : index.docs)
+      if (a != null && a.getTitle().equals(title))
+        for (SearchHit h : index.related(a, 5))
+          sb.append(h.getArticle().getTitle()).append(' ');
+    return sb.toString();
+  }
+
+  // test helper: the titles of the articles a query finds, sorted
+  private static String titles(InvertedIndex index, String query) {
+    BooleanQuery q = BooleanQuery.parse(query);
+    List<String> found = new ArrayList<String>();
+    for (SearchHit h : index.search(TermVector.ofQuery(q.text()), new CosineScorer(), 10, q))
+      found.add(h.getArticle().getTitle());
+    Collections.sort(found);
+    return String.join(" ", found) + " ";
+  }
+}
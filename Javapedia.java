@@ -1,5 +1,5 @@
 /* Javapedia.java
-   A program that uses the DatabaseIterator
+   A program that uses the CorpusLoader
    and Article classes, along with other data
    structures, to allow a user to create, modify
    and interact with a local database of txt files.
@@ -12,39 +12,14 @@ import java.lang.StringBuilder;
 
 public class Javapedia {
 
-  /* getArticleList returns an array of articles from
-     a DatabaseIterator object
-
-     @param:  db    The DatabaseIterator object
-     @return: list The list of articles found by db
-  */
-  private static Article[] getArticleList(DatabaseIterator db) {
-
-    // Count how many articles are in the directory
-    int count = db.getNumArticles();
-
-    // Create array
-    Article[] list = new Article[count];
-    for(int i = 0; i < count; ++i)
-      list[i] = db.next();
-
-    return list;
-  }
-
-
-  /* Set up database iterator to iterate through files in the given path */
-  private static DatabaseIterator setupDatabase(String path) {
-    return new DatabaseIterator(path);
-  }
-
-
-  /* Add an article to the encyclopedia.
+  /* Add an article to the encyclopedia, or replace the article with the
+     same title. The article is searchable as soon as it is added.
 
     @param: s The scanner to read user input
-    @param: T The ArticleHashTable object that stores articles
+    @param: T The ArticleTable object that stores articles
 
   */
-  private static void addArticle(Scanner s, ArticleHashTable T) {
+  private static void addArticle(Scanner s, ArticleTable T) {
     System.out.println();
     System.out.println("Add an article");
     System.out.println("==============");
@@ -62,16 +37,25 @@ public class Javapedia {
       body += line + "\n";
     } while (!line.equals(""));
 
-    T.insert(new Article(title, body));
+    if (T.member(title))    // an existing article with this title is replaced
+      System.out.println("Replacing existing article \"" + title + "\".");
+    try {
+      if (journal != null)
+        journal.update(T, new Article(title, body));
+      else
+        T.update(new Article(title, body));
+    } catch (java.io.IOException e) {
+      System.out.println("Could not save the article, it will be lost on exit: " + e.getMessage());
+    }
   }
 
   /* Remove an article from the encyclopedia.
 
     @param: s The scanner to read user input
-    @param: T The ArticleHashTable object that stores articles
+    @param: T The ArticleTable object that stores articles
 
   */
-  private static void removeArticle(Scanner s, ArticleHashTable T) {
+  private static void removeArticle(Scanner s, ArticleTable T) {
     System.out.println();
     System.out.println("Remove an article");
     System.out.println("=================");
@@ -79,8 +63,14 @@ public class Javapedia {
     System.out.print("Enter article title: ");
     String title = s.nextLine();
 
-
-    T.delete(title);
+    try {
+      if (journal != null)
+        journal.delete(T, title);
+      else
+        T.delete(title);
+    } catch (java.io.IOException e) {
+      System.out.println("Could not save the removal, the article will be back after a restart: " + e.getMessage());
+    }
   }
 
  /* Search article database via title. Prints
@@ -88,10 +78,10 @@ public class Javapedia {
     be an exact match for the article to found.
 
     @param: s The scanner object for user input
-    @param: T The ArticleHashTable with the articles to be searched
+    @param: T The ArticleTable with the articles to be searched
 
  */
-  private static void titleSearch(Scanner s, ArticleHashTable T) {
+  private static void titleSearch(Scanner s, ArticleTable T) {
     System.out.println();
     System.out.println("Search by article title");
     System.out.println("=======================");
@@ -101,7 +91,7 @@ public class Javapedia {
 
     Article a = T.lookup(title);
     if(a != null)
-      System.out.println(a);
+      showPaged(s, a);
     else {
       System.out.println("Article not found!");
       return;
@@ -111,128 +101,310 @@ public class Javapedia {
     s.nextLine();
   }
 
- /* Preprocess a string to get its cosine similarity to another string*/
-  private static String preprocess(String s) {
-    s = s.toLowerCase();        // turns s into lowercase
-    char [] C = s.toCharArray(); // convert to array of chars
-    String new_string = "";
-    for (int i = 0; i < C.length; ++ i){
-      if (Character.isLetterOrDigit(C[i]) || Character.isWhitespace(C[i])) // iterate through array, add char to array
-        new_string += C[i];                                                // if it is a letter, digit, or whitespace
+  /* Lists the articles most similar to one chosen by title.
+
+    @param: s The scanner object for user input
+    @param: T The ArticleTable with the articles to be searched
+  */
+  private static void relatedSearch(Scanner s, ArticleTable T) {
+    System.out.println();
+    System.out.println("Find related articles");
+    System.out.println("=====================");
+
+    System.out.print("Enter article title: ");
+    String title = s.nextLine();
+
+    String related = relatedArticles(title, T, numResults);
+    System.out.println();
+    System.out.println((related != null) ? related : "Article not found!");
+  }
+
+  /* relatedArticles lists the articles most similar to the one with the
+     given title, by the cosine similarity of their bodies
+
+     @param:  title The title of the article
+     @param:  T     The ArticleTable with the articles
+     @param:  k     The number of related articles wanted
+     @return: s     One line per related article, or null if there is no
+                    article with that title
+  */
+  public static String relatedArticles(String title, ArticleTable T, int k) {
+    List<SearchHit> hits = T.related(title, k);
+    if (hits == null)
+      return null;
+    if (hits.isEmpty())
+      return "No related articles found!\n";
+    StringBuilder sb = new StringBuilder("Articles related to " + title + ":\n\n");
+    for (int i = 0; i < hits.size(); ++i)
+      sb.append(i + 1).append(". ").append(hits.get(i).getArticle().getTitle())
+        .append(" (cosine similarity of ").append(hits.get(i).getScore()).append(")\n");
+    return sb.toString();
+  }
+
+  private static final int PAGE_LINES = 40;   // lines of an article shown before waiting for the reader
+
+  /* showPaged prints an article PAGE_LINES lines at a time, waiting for
+     return between pages; "q" skips the rest of the article.
+  */
+  private static void showPaged(final Scanner s, Article a) {
+    try {
+      new ArticleRenderer().setPager(PAGE_LINES, new ArticleRenderer.Pager() {
+        public boolean nextPage(Appendable out) {
+          System.out.print("-- Press return for more, or q and return to stop --");
+          return !s.nextLine().trim().equalsIgnoreCase("q");
+        }
+      }).render(a, System.out);
+    } catch (java.io.IOException e) {  // PrintStream does not throw
+      throw new java.io.UncheckedIOException(e);
     }
-    return new_string;
+    System.out.println();
   }
 
-  private static boolean contains(String term, String [] S){ //tests if a string is in an array of strings
-    for (int i = 0; i < S.length; ++ i){                   // return true if found
-      if (term.compareTo(S[i]) == 0)
-        return true;
+  /* showSearch prints the matches of a phrase search as each one is
+     rendered, without building the whole result first
+  */
+  private static void showSearch(String phrase, ArticleTable T) {
+    try {
+      phraseSearch(phrase, T, scorer, numResults, System.out);
+    } catch (java.io.IOException e) {  // PrintStream does not throw
+      throw new java.io.UncheckedIOException(e);
     }
-    return false;                                           // return false otherwise
+    System.out.println();
   }
 
-  private static boolean blacklisted(String s) { //returns true if string is in blacklist
-    return contains(s, blackList);
+  private static ArticleLog journal;         // makes added and removed articles survive a restart, or null
+
+  /* Ranking functions that can be chosen from the menu */
+  private static final Scorer [] scorers = { new CosineScorer(), new TfIdfScorer(), new Bm25Scorer() };
+
+  private static Scorer scorer = scorers[0]; // ranking used by phrase searches
+
+  private static int numResults = 3;         // number of matches shown by phrase searches
+
+  // most matches one search may ask for; every search partition keeps a heap of that many
+  static final int MAX_RESULTS = 100;
+
+
+  /* Let the user pick the ranking function used by phrase searches.
+
+    @param: s The scanner to read user input
+
+  */
+  private static void chooseScorer(Scanner s) {
+    System.out.println();
+    System.out.println("Choose ranking mode");
+    System.out.println("===================");
+
+    for (int i = 0; i < scorers.length; ++i)
+      System.out.println("    " + (i + 1) + ". " + scorers[i].name() + (scorers[i] == scorer ? " (current)" : ""));
+
+    System.out.print("Enter a selection (1-" + scorers.length + "): ");
+    int choice = s.nextInt();
+    s.nextLine();
+
+    if (choice >= 1 && choice <= scorers.length)
+      scorer = scorers[choice - 1];
   }
 
-  /* getCosineSimilarity takes in two strings and returns a double representing their
-     cosine similarity
+
+  /* Let the user pick how many matches phrase searches show.
+
+    @param: s The scanner to read user input
+
   */
-  private static double getCosineSimilarity(String s, String t) {
-    s = preprocess(s); // preprocess both strings in order to compare them
-    t = preprocess(t);
-    String [] S = s.split(" "); // turn both strings into array, splitting on whitespace
-    String [] T_list = t.split(" ");
-    WordFrequencyTable X = new WordFrequencyTable();
-    for (int i = 0; i < S.length; ++ i){  // insert word into table if it isn't blacklisted
-      if (!blacklisted(S[i]))
-        X.insert(S[i], 0);
-    }
-    for (int i = 0; i < T_list.length; ++ i){ // do the same for document 1
-      if (!blacklisted(T_list[i]))
-        X.insert(T_list[i], 1);
-    }
-    return X.cosineSimilarity();
+  private static void chooseNumResults(Scanner s) {
+    System.out.println();
+    System.out.print("Enter number of matches to show (currently " + numResults + "): ");
+    int k = s.nextInt();
+    s.nextLine();
+
+    if (k >= 1 && k <= MAX_RESULTS)
+      numResults = k;
+    else
+      System.out.println("The number of matches must be between 1 and " + MAX_RESULTS + ".");
   }
 
 
-  /*phraseSearch returns the top 3 articles with the highest
-    cosine similarity to the search phrase.
+  /*phraseSearch returns the articles that score highest against the
+    search phrase, using the ranking mode and number of matches chosen
+    from the menu.
 
     @param:  phrase The string representing the search phrase
-    @param:  T      The ArticleHashTable object to be searched
-    @return: s      The string containing the titles and bodies of the top 3 articles
+    @param:  T      The ArticleTable object to be searched
+    @return: s      The string containing the titles and bodies of the top articles
 
   */
-  public static String phraseSearch(String phrase, ArticleHashTable T) {
+  public static String phraseSearch(String phrase, ArticleTable T) {
+    return phraseSearch(phrase, T, scorer, numResults);
+  }
 
-    MaxHeap Heap = new MaxHeap();
+  /* Same as previous, but ranks the articles with the given scorer and
+     returns at most k of them
+  */
+  public static String phraseSearch(String phrase, ArticleTable T, Scorer scorer, int k) {
+    StringBuilder sb = new StringBuilder();
+    try {
+      phraseSearch(phrase, T, scorer, k, sb);
+    } catch (java.io.IOException e) { // a StringBuilder never throws
+      throw new AssertionError(e);
+    }
+    return sb.toString();
+  }
 
-    T.reset();
-    while(T.hasNext()) { // for each article, get the cosine similarity of the search phrase and article's body
-      Article a = T.next();
-      a.cosineSimilarity = getCosineSimilarity(phrase, a.getBody());
-      double score = a.cosineSimilarity;
-      if (score > 0.001){         // insert similarity score into MaxHeap if score > 0.001
-        Heap.insert(a);
-      }
+  /* Same as previous, but writes the matches to out as each one is rendered
+     instead of returning them, so the menu can print them and a server can
+     stream them to a client. Nothing written is kept.
+
+     @param: out The Appendable the results are written to
+  */
+  public static void phraseSearch(String phrase, ArticleTable T, Scorer scorer, int k,
+                                  Appendable out) throws java.io.IOException {
+    long start = Metrics.start();
+
+    // a repeated search reuses the ranked matches until the articles change; they are rendered again
+    String key = QueryCache.key(phrase, scorer.name(), k);
+    long generation = T.getIndex().generation(); // read before searching, so edits during the search are not missed
+    List<SearchHit> hits = T.getCache().get(key, generation);
+    if (hits == null) {
+      BooleanQuery filter = BooleanQuery.parse(phrase);      // +required -excluded AND OR NOT "in order"
+      TermVector query = TermVector.ofQuery(filter.text()); // analyze the phrase once, articles keep their own vectors
+
+      // only articles sharing a term with the phrase are scored, split across all cores,
+      // or with operators, only the articles the filter finds
+      hits = T.getIndex().parallelSearch(query, scorer, k, filter);
+      T.getCache().put(key, generation, hits);
     }
 
-    String s = "";
-    if (Heap.isEmpty()){          // heap is empty, return proper message
-      s =("\nNo matching articles found!");
+    long rendering = Metrics.start();
+    if (hits.isEmpty()){          // no matches, return proper message
+      out.append("\nNo matching articles found!");
     }
 
-    else{
-      if (Heap.size() < 3){ // if fewer than 3 articles have been added to the heap, return all of the articles, in order of ascending similarity score
-        s += "Top " + Heap.size() + " Matches:\n\n";
-        for (int i = 0; i < Heap.size(); ++i){
-          Article match = Heap.getMax();
-          s+= "Match " + (i + 1) + " with cosine similairty of " + match.cosineSimilarity + ":\n\n" + match;
-        }
-      }
-      else{    // if heap size  is >= 3, just return the top 3 scores
-        s += "Top " + 3 + " Matches:\n\n";
-        for (int i = 0; i < 3; ++i){
-          Article match = Heap.getMax();
-          s+= "Match " + (i + 1) + " with cosine similairty of " + match.cosineSimilarity + ":\n\n" + match;
-        }
+    else{ // return up to the top k matches, in order of descending score
+      out.append("Top " + hits.size() + " Matches:\n\n");
+      for (int i = 0; i < hits.size(); ++i){
+        SearchHit match = hits.get(i);
+        out.append("Match " + (i + 1) + " with " + scorer.name() + " of " + match.getScore() + ":\n\n");
+        match.getArticle().render(out);
       }
     }
-    return s;
+    Metrics.RENDER.recordSince(rendering);
+    Metrics.SEARCH.recordSince(start);
   }
 
 
- /*Blacklist common words that aren't used in cosine similairty computation  */
-  private static final String [] blackList = { "the", "of", "and", "a", "to", "in", "is",
-    "you", "that", "it", "he", "was", "for", "on", "are", "as", "with",
-    "his", "they", "i", "at", "be", "this", "have", "from", "or", "one",
-    "had", "by", "word", "but", "not", "what", "all", "were", "we", "when",
-    "your", "can", "said", "there", "use", "an", "each", "which", "she",
-    "do", "how", "their", "if", "will", "up", "other", "about", "out", "many",
-    "then", "them", "these", "so", "some", "her", "would", "make", "like",
-    "him", "into", "time", "has", "look", "two", "more", "write", "go", "see",
-    "number", "no", "way", "could", "people",  "my", "than", "first", "water",
-    "been", "call", "who", "oil", "its", "now", "find", "long", "down", "day",
-    "did", "get", "come", "made", "may", "part" };
+  private static final long COMPACT_PERIOD = 60;   // seconds between checks of the log's size
 
+  /* closeJournal stops the directory watcher, if any, writes the logged
+     changes back to the articles directory and closes the log. If that
+     fails the changes stay in the log and are replayed at the next start.
+  */
+  private static void closeJournal(ArticleTable T, DirectoryWatcher watcher) {
+    try {
+      if (watcher != null)
+        watcher.close();
+      if (journal.size() > 0)
+        journal.compact(T);
+      journal.close();
+    } catch (java.io.IOException e) {
+      System.err.println("Could not write changes back to the articles directory: " + e.getMessage());
+    }
+  }
 
-/* Main method providing user interface */
-  public static void main(String[] args) {
+
+/* Main method providing user interface. Run with "--server [port]" to
+   serve the articles over HTTP instead (see SearchServer), or with
+   "--batch [file] [options]" to run a file of searches (see BatchSearch).
+   With "--watch" as well, files added to, edited in, or removed from the
+   articles directory are picked up while running (see DirectoryWatcher).
+*/
+  public static void main(String[] args) throws java.io.IOException, InterruptedException {
 
     Scanner user = new Scanner(System.in);
 
     String dbPath = "articles/";
+    String snapshotPath = "articles.snapshot";
+    String logPath = "articles.log";
+
+    List<String> options = new ArrayList<String>(Arrays.asList(args));
+    boolean watch = options.remove("--watch");
+    args = options.toArray(new String[0]);
+
+    boolean serve = (args.length > 0 && args[0].equals("--server"));
+    boolean batch = (args.length > 0 && args[0].equals("--batch"));
+    java.io.PrintStream log = batch ? System.err : System.out; // batch results go to standard output
+    BatchSearch.Options batchOptions = null;
+    if (batch) {
+      try {
+        batchOptions = BatchSearch.Options.parse(Arrays.copyOfRange(args, 1, args.length));
+      } catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+        System.err.println(BatchSearch.USAGE);
+        return;
+      }
+    }
 
-    DatabaseIterator db = setupDatabase(dbPath);
+    long fingerprint = CorpusSnapshot.fingerprint(dbPath);
+    Article[] A = CorpusSnapshot.read(snapshotPath, fingerprint); // null if missing or out of date
+    boolean fromSnapshot = (A != null);
+    if (!fromSnapshot)
+      A = CorpusLoader.load(dbPath); // read all files in parallel
 
-    System.out.println("Read " + db.getNumArticles() +
-                       " articles from disk.");
+    log.println("Read " + A.length +
+                       " articles from " + (fromSnapshot ? "snapshot." : "disk."));
 
-    ArticleHashTable L = new ArticleHashTable();
-    Article[] A = getArticleList(db);
+    // clients of the server, and the directory watcher, change articles concurrently
+    ArticleTable L = (serve || watch) ? new ConcurrentArticleHashTable() : new ArticleHashTable();
     L.initialize(A);
 
+    try {                  // the statistics of menu option 7 can also be watched with jconsole
+      Metrics.register(L);
+    } catch (javax.management.JMException e) {
+      log.println("Could not register JMX beans: " + e.getMessage());
+    }
+
+    if (!fromSnapshot) {   // save the loaded and tokenized corpus for the next start
+      try {
+        CorpusSnapshot.write(snapshotPath, fingerprint, A);
+      } catch (java.io.IOException e) {
+        log.println("Could not save snapshot: " + e.getMessage());
+      }
+    }
+
+    // replay the articles added and removed since they were last written back to the directory
+    journal = new ArticleLog(logPath, dbPath);
+    int replayed = journal.replay(L);
+    if (replayed > 0)
+      log.println("Replayed " + replayed + " changes from " + logPath + ".");
+
+    if (batch) {
+      journal.close();
+      BatchSearch.run(L, batchOptions);
+      return;
+    }
+
+    journal.startCompactor(L, COMPACT_PERIOD);
+
+    final DirectoryWatcher watcher = watch ? new DirectoryWatcher((ConcurrentArticleHashTable) L, dbPath) : null;
+    if (watcher != null) {
+      watcher.start();
+      log.println("Watching " + dbPath + " for changes.");
+    }
+
+    if (serve) {
+      int port = (args.length > 1) ? Integer.parseInt(args[1]) : 8080;
+      final SearchServer server = new SearchServer(L, journal, port);
+      server.start();
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        public void run() {
+          server.stop(1);
+          closeJournal(L, watcher);
+        }
+      });
+      System.out.println("Serving on http://localhost:" + server.getPort() + "/ (Ctrl-C to stop)");
+      return;
+    }
+
     int choice = -1;
     do {
       System.out.println();
@@ -245,16 +417,21 @@ public class Javapedia {
       System.out.println("    2. remove an article");
       System.out.println("    3. Search by article title");
       System.out.println("    4. Search by phrase(list of keywords)");
+      System.out.println("    5. Choose ranking mode (" + scorer.name() + ")");
+      System.out.println("    6. Set number of matches (" + numResults + ")");
+      System.out.println("    7. Show performance statistics");
+      System.out.println("    8. Find related articles");
       System.out.println();
       System.out.println();
 
-      System.out.print("Enter a selection (1-4, or 0 to quit): ");
+      System.out.print("Enter a selection (1-8, or 0 to quit): ");
 
       choice = user.nextInt();
       user.nextLine();
 
       switch (choice) {
         case 0:
+          closeJournal(L, watcher);
           return;
 
         case 1:
@@ -273,9 +450,28 @@ public class Javapedia {
           System.out.println();
           System.out.println("Search by article content");
           System.out.println("=======================");
-          System.out.print("Enter search phrase: ");
+          System.out.print("Enter search phrase (+word required, -word excluded, AND OR NOT, \"words together\"): ");
           String phrase = user.nextLine();
-          System.out.println(phraseSearch(phrase,L));
+          showSearch(phrase, L);
+          break;
+
+        case 5:
+          chooseScorer(user);
+          break;
+
+        case 6:
+          chooseNumResults(user);
+          break;
+
+        case 7:
+          System.out.println();
+          System.out.println("Performance statistics");
+          System.out.println("======================");
+          System.out.print(Metrics.dump(L));
+          break;
+
+        case 8:
+          relatedSearch(user, L);
           break;
 
         default:
@@ -284,7 +480,7 @@ public class Javapedia {
 
       choice = -1;
 
-    } while (choice < 0 || choice > 4);
+    } while (choice < 0 || choice > 8);
 
   }
 
@@ -0,0 +1,192 @@
+/* LatencyHistogram.java
+   Records how long one kind of operation takes, and reports how many were
+   recorded, their throughput, and percentiles of their latency.
+
+   Latencies are counted in buckets rather than stored. Below 32 ns every
+   nanosecond has its own bucket; above that, each power of 2 is split
+   into 32 equal buckets, so a reported percentile is within about 3% of
+   the true one whatever its size (the same scheme as HdrHistogram).
+   Recording is one atomic increment plus a couple of adds, never takes a
+   lock, and never allocates, so histograms can stay on in production.
+ */
+
+import java.util.concurrent.atomic.*;
+
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+  private static final int SUB_BITS = 5;
+  private static final int SUB = 1 << SUB_BITS;          // buckets per power of 2
+  private static final int BUCKETS = SUB + (63 - SUB_BITS) * SUB;
+
+  private final String name;
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder total = new LongAdder();       // sum of all latencies
+  private final AtomicLong max = new AtomicLong();
+  private volatile long since = System.nanoTime();       // when recording started or was reset
+
+  public LatencyHistogram(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /* Returns the bucket of a latency */
+  static int bucket(long nanos) {
+    if (nanos < SUB)
+      return (int) Math.max(nanos, 0);
+    int e = 63 - Long.numberOfLeadingZeros(nanos);   // nanos is in [2^e, 2^(e+1))
+    int sub = (int) (nanos >>> (e - SUB_BITS)) - SUB;
+    return SUB + (e - SUB_BITS) * SUB + sub;
+  }
+
+  /* Returns the smallest latency in a bucket */
+  static long lowest(int bucket) {
+    if (bucket < SUB)
+      return bucket;
+    int j = bucket - SUB;
+    return (long) (SUB + j % SUB) << (j / SUB);
+  }
+
+  /* Returns the largest latency in a bucket */
+  static long highest(int bucket) {
+    return (bucket + 1 == BUCKETS) ? Long.MAX_VALUE : lowest(bucket + 1) - 1;
+  }
+
+  /* Records one operation that took the given number of nanoseconds */
+  public void record(long nanos) {
+    counts.incrementAndGet(bucket(nanos));
+    total.add(nanos);
+    long m = max.get();
+    while (nanos > m && !max.compareAndSet(m, nanos))
+      m = max.get();
+  }
+
+  /* Records one operation that started at the given System.nanoTime(), as
+     returned by Metrics.start(). Does nothing if metrics are turned off.
+  */
+  public void recordSince(long start) {
+    if (Metrics.ENABLED)
+      record(System.nanoTime() - start);
+  }
+
+  public long getCount() {
+    long n = 0;
+    for (int i = 0; i < BUCKETS; ++i)
+      n += counts.get(i);
+    return n;
+  }
+
+  /* Returns the number of operations per second since recording started */
+  public double getThroughput() {
+    double seconds = (System.nanoTime() - since) / 1e9;
+    return (seconds <= 0) ? 0 : getCount() / seconds;
+  }
+
+  /* percentile returns the latency that the given fraction of operations
+     took no longer than, to within the width of its bucket
+
+     @param:  p     The fraction, e.g. 0.99 for the 99th percentile
+     @return: nanos The latency in nanoseconds, or 0 if nothing was recorded
+  */
+  public long percentile(double p) {
+    long[] snapshot = new long[BUCKETS];
+    long n = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      snapshot[i] = counts.get(i);
+      n += snapshot[i];
+    }
+    if (n == 0)
+      return 0;
+    long rank = Math.max(1, (long) Math.ceil(p * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      seen += snapshot[i];
+      if (seen >= rank)
+        return Math.min(lowest(i) + (highest(i) - lowest(i)) / 2, max.get()); // middle of the bucket
+    }
+    return max.get();
+  }
+
+  public double getMeanMicros() {
+    long n = getCount();
+    return (n == 0) ? 0 : total.sum() / 1000.0 / n;
+  }
+
+  public double getP50Micros() {
+    return percentile(0.50) / 1000.0;
+  }
+
+  public double getP99Micros() {
+    return percentile(0.99) / 1000.0;
+  }
+
+  public double getP999Micros() {
+    return percentile(0.999) / 1000.0;
+  }
+
+  public double getMaxMicros() {
+    return max.get() / 1000.0;
+  }
+
+  /* Forgets everything recorded so far. Operations recorded while the reset
+     is running may or may not be kept.
+  */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; ++i)
+      counts.set(i, 0);
+    total.reset();
+    max.set(0);
+    since = System.nanoTime();
+  }
+
+  /* Returns one line of statistics, with latencies in microseconds */
+  public String toString() {
+    return String.format("%-8s %10d ops %10.1f ops/s   mean %9.1f  p50 %9.1f  p99 %9.1f  p99.9 %9.1f  max %9.1f us",
+                         name, getCount(), getThroughput(), getMeanMicros(), getP50Micros(),
+                         getP99Micros(), getP999Micros(), getMaxMicros());
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) throws InterruptedException {
+    System.out.println("Testing buckets, should be 0 31 32 32 33 and 63 64 66:");
+    System.out.println(bucket(0) + " " + bucket(31) + " " + bucket(32) + " " + lowest(bucket(32)) + " " + bucket(33) +
+                       " and " + bucket(63) + " " + bucket(64) + " " + lowest(bucket(66)));
+    System.out.println();
+
+    System.out.println("Testing that every latency falls in its bucket, should be true:");
+    boolean ok = true;
+    for (long v = 1; v > 0 && v < Long.MAX_VALUE / 3; v = v * 3 + 1) {
+      int b = bucket(v);
+      ok &= lowest(b) <= v && v <= highest(b) && highest(b) - lowest(b) <= Math.max(1, v / SUB);
+    }
+    System.out.println(ok);
+    System.out.println();
+
+    System.out.println("Testing percentiles of 1..100000 ns, should be within 3% of 50000, 99000, 99900:");
+    LatencyHistogram h = new LatencyHistogram("test");
+    for (long v = 1; v <= 100000; ++v)
+      h.record(v);
+    System.out.println(h.percentile(0.5) + ", " + h.percentile(0.99) + ", " + h.percentile(0.999) +
+                       " (count " + h.getCount() + ", max " + h.getMaxMicros() + " us)");
+    System.out.println();
+
+    System.out.println("Testing 4 threads recording 250000 each, should count 1000000:");
+    final LatencyHistogram shared = new LatencyHistogram("threads");
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; ++t) {
+      threads[t] = new Thread(new Runnable() {
+        public void run() {
+          for (int i = 0; i < 250000; ++i)
+            shared.record(i);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread t : threads)
+      t.join();
+    System.out.println(shared.getCount());
+  }
+}
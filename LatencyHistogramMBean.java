@@ -0,0 +1,16 @@
+/* LatencyHistogramMBean.java
+   The attributes of a LatencyHistogram shown over JMX, one MBean per kind
+   of operation. Latencies are in microseconds.
+ */
+
+public interface LatencyHistogramMBean {
+  String getName();
+  long getCount();
+  double getThroughput();
+  double getMeanMicros();
+  double getP50Micros();
+  double getP99Micros();
+  double getP999Micros();
+  double getMaxMicros();
+  void reset();
+}
@@ -0,0 +1,82 @@
+/* Metrics.java
+   Latency histograms for the operations Javapedia spends its time on, and
+   the text report and JMX MBeans that show them along with the size of the
+   corpus, the index, and the search cache.
+
+   Code being measured calls
+
+     long start = Metrics.start();
+     ...
+     Metrics.SEARCH.recordSince(start);
+
+   Recording is on unless the program is started with -Djavapedia.metrics=false,
+   in which case the JIT removes the calls entirely.
+ */
+
+import java.lang.management.ManagementFactory;
+import javax.management.*;
+
+public class Metrics {
+
+  static final boolean ENABLED = !"false".equals(System.getProperty("javapedia.metrics"));
+
+  public static final LatencyHistogram LOAD = new LatencyHistogram("load");     // reading one article file
+  public static final LatencyHistogram LOOKUP = new LatencyHistogram("lookup"); // finding an article by title
+  public static final LatencyHistogram INSERT = new LatencyHistogram("insert");
+  public static final LatencyHistogram UPDATE = new LatencyHistogram("update");
+  public static final LatencyHistogram DELETE = new LatencyHistogram("delete");
+  public static final LatencyHistogram SEARCH = new LatencyHistogram("search"); // a whole phrase search, cached or not
+  public static final LatencyHistogram RENDER = new LatencyHistogram("render"); // formatting search results
+  public static final LatencyHistogram LOG_SYNC = new LatencyHistogram("log sync"); // forcing ArticleLog changes to disk
+  public static final LatencyHistogram RELATED = new LatencyHistogram("related"); // finding the articles related to one
+
+  private static final LatencyHistogram[] all = { LOAD, LOOKUP, INSERT, UPDATE, DELETE, SEARCH, RENDER, LOG_SYNC,
+                                                  RELATED };
+
+  /* Returns the time to pass to recordSince, or 0 if metrics are turned off */
+  public static long start() {
+    return ENABLED ? System.nanoTime() : 0;
+  }
+
+  /* register makes the histograms and the statistics of a table visible over
+     JMX, under the domain "javapedia". Registering again replaces them.
+
+     @param: T The ArticleTable whose corpus, index, and cache are shown
+  */
+  public static void register(ArticleTable T) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (LatencyHistogram h : all)
+      register(server, h, new ObjectName("javapedia:type=Latency,name=" + h.getName()));
+    register(server, new CorpusStats(T), new ObjectName("javapedia:type=Corpus"));
+  }
+
+  private static void register(MBeanServer server, Object bean, ObjectName name) throws JMException {
+    if (server.isRegistered(name))
+      server.unregisterMBean(name);
+    server.registerMBean(bean, name);
+  }
+
+  /* dump returns a text report of every histogram and of the table's corpus,
+     index, and search cache
+  */
+  public static String dump(ArticleTable T) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("Latency (microseconds)").append(ENABLED ? "" : " -- recording is off").append('\n');
+    for (LatencyHistogram h : all)
+      sb.append("  ").append(h).append('\n');
+    sb.append('\n');
+    CorpusStats c = new CorpusStats(T);
+    sb.append("  articles         ").append(c.getArticles()).append('\n');
+    sb.append("  indexed terms    ").append(c.getTerms()).append(" (").append(c.getDictionaryTerms())
+      .append(" in dictionary)\n");
+    sb.append("  index memory     ").append(c.getIndexBytes() / 1024).append(" KB (estimated)\n");
+    sb.append("  ").append(T.getCache()).append('\n');
+    return sb.toString();
+  }
+
+  /* Forgets everything recorded so far */
+  public static void reset() {
+    for (LatencyHistogram h : all)
+      h.reset();
+  }
+}
@@ -0,0 +1,238 @@
+/* MinHashIndex.java
+   Finds the articles that are probably similar to a given one, without
+   comparing it to every other article.
+
+   Each article is summarized by a MinHash signature: for each of HASHES
+   hash functions, the smallest hash of any of its TERMS most frequent
+   terms. Two articles agree on any one value with probability equal to
+   the overlap (Jaccard similarity) of those term sets. The signature is
+   cut into BANDS bands of ROWS values, and every article is filed under
+   each of its bands (locality-sensitive hashing). Articles sharing a band
+   are candidates; with 2 rows in 64 bands, a pair overlapping by a third
+   shares a band almost surely, while a pair overlapping by a tenth does
+   only half the time, so only a small part of the corpus is looked at.
+   The candidates are then ranked by their exact cosine similarity (see
+   InvertedIndex.related).
+
+   Articles are filed and unfiled one at a time, so the index stays in
+   step with adds and deletes. It is not synchronized itself: InvertedIndex
+   only changes it under its write lock.
+ */
+
+import java.util.*;
+
+public class MinHashIndex {
+
+  static final int TERMS = 16;   // terms an article is summarized by
+  static final int BANDS = 64;
+  static final int ROWS = 2;     // signature values per band
+  static final int HASHES = BANDS * ROWS;
+
+  // band key -> doc ids filed under it; ids[0] is the number of doc ids that follow
+  private final HashMap<Long, int[]> buckets = new HashMap<Long, int[]>();
+  private int[][] signatures = new int[1024][];  // signature of each filed doc id, null if none
+
+  /* signature computes the MinHash signature of an article. Each term id
+     is hashed once to two 32-bit values h1 and h2, and the i-th hash is
+     h1 + i * h2, which behaves as well as HASHES independent functions.
+
+     @param:  v The article's term vector
+     @return:   HASHES minimum hash values
+  */
+  public static int[] signature(TermVector v) {
+    int[] sig = new int[HASHES];
+    Arrays.fill(sig, Integer.MAX_VALUE);
+    for (int t : topTerms(v)) {
+      long x = v.termId(t) * 0x9E3779B97F4A7C15L;
+      x ^= x >>> 32;
+      x *= 0xD6E8FEB86659FD93L;
+      x ^= x >>> 32;
+      int h1 = (int) x;
+      int h2 = (int) (x >>> 32) | 1;
+      for (int i = 0; i < HASHES; ++i) {
+        int h = h1 + i * h2;
+        if (h < sig[i])
+          sig[i] = h;
+      }
+    }
+    return sig;
+  }
+
+  /* Returns the indexes in v of its TERMS most frequent terms, the lowest
+     term ids first among equal frequencies
+  */
+  private static int[] topTerms(TermVector v) {
+    int n = v.size();
+    if (n <= TERMS) {
+      int[] all = new int[n];
+      for (int t = 0; t < n; ++t)
+        all[t] = t;
+      return all;
+    }
+    // vectors are sorted by term id, so a stable selection by frequency keeps ties by id
+    int[] top = new int[TERMS];
+    int count = 0;
+    for (int t = 0; t < n; ++t) {
+      int j = count;
+      if (j == TERMS) {
+        if (v.freq(t) <= v.freq(top[TERMS - 1]))
+          continue;
+        --j;
+      } else {
+        ++count;
+      }
+      while (j > 0 && v.freq(top[j - 1]) < v.freq(t)) {
+        top[j] = top[j - 1];
+        --j;
+      }
+      top[j] = t;
+    }
+    return top;
+  }
+
+  /* Files a doc id under each band of its signature */
+  public void add(int doc, int[] sig) {
+    if (doc >= signatures.length)
+      signatures = Arrays.copyOf(signatures, Math.max(2 * signatures.length, doc + 1));
+    signatures[doc] = sig;
+    for (int b = 0; b < BANDS; ++b) {
+      Long key = key(sig, b);
+      int[] ids = buckets.get(key);
+      if (ids == null)
+        ids = new int[4];
+      else if (ids[0] + 1 == ids.length)
+        ids = Arrays.copyOf(ids, 2 * ids.length);
+      ids[++ids[0]] = doc;
+      buckets.put(key, ids);
+    }
+  }
+
+  /* Unfiles a doc id, if it was filed */
+  public void remove(int doc) {
+    if (doc >= signatures.length || signatures[doc] == null)
+      return;
+    int[] sig = signatures[doc];
+    signatures[doc] = null;
+    for (int b = 0; b < BANDS; ++b) {
+      Long key = key(sig, b);
+      int[] ids = buckets.get(key);
+      for (int i = 1; i <= ids[0]; ++i) {
+        if (ids[i] == doc) {
+          ids[i] = ids[ids[0]--];     // the last one takes its place
+          break;
+        }
+      }
+      if (ids[0] == 0)
+        buckets.remove(key);
+    }
+  }
+
+  /* Unfiles every doc id */
+  public void clear() {
+    buckets.clear();
+    signatures = new int[1024][];
+  }
+
+  /* candidates adds to found the doc ids sharing at least one band with a
+     signature, which may be one of them
+  */
+  public void candidates(int[] sig, BitSet found) {
+    for (int b = 0; b < BANDS; ++b) {
+      int[] ids = buckets.get(key(sig, b));
+      if (ids != null)
+        for (int i = 1; i <= ids[0]; ++i)
+          found.set(ids[i]);
+    }
+  }
+
+  /* Returns the key of band b: its values and its number hashed together */
+  private static Long key(int[] sig, int b) {
+    long h = b;
+    for (int i = b * ROWS; i < (b + 1) * ROWS; ++i)
+      h = h * 0x100000001B3L + sig[i];
+    return h * 0x9E3779B97F4A7C15L + b;
+  }
+
+  /* Returns the number of doc ids filed */
+  public int size() {
+    int n = 0;
+    for (int[] sig : signatures)
+      if (sig != null)
+        ++n;
+    return n;
+  }
+
+  /* Estimates the heap taken by the signatures and buckets */
+  public long memoryBytes() {
+    long bytes = 16 + 4L * signatures.length;
+    for (int[] sig : signatures)
+      if (sig != null)
+        bytes += 16 + 4L * HASHES;
+    for (int[] ids : buckets.values())
+      bytes += 48 + 16 + 4L * ids.length;   // entry, boxed key and array
+    return bytes;
+  }
+
+  /* Returns the fraction of values two signatures agree on */
+  private static double agreement(int[] x, int[] y) {
+    int same = 0;
+    for (int i = 0; i < HASHES; ++i)
+      if (x[i] == y[i])
+        ++same;
+    return (double) same / HASHES;
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) {
+    TermVector space = TermVector.of("space planets orbit stars moon sun space planets orbit telescope");
+    TermVector space2 = TermVector.of("space planets orbit stars moon comet space planets orbit rocket");
+    TermVector cooking = TermVector.of("bread flour oven butter yeast sugar bread flour salt water");
+
+    // one pair's agreement is a binomial estimate over HASHES values, so it is only within
+    // 3 * sqrt(J(1 - J) / HASHES), about 0.13 for J = 5/9, of the Jaccard similarity
+    System.out.println("Testing signature agreement, should be within 0.13 of 0.56 (Jaccard 5/9), and near 0:");
+    int[] a = signature(space), b = signature(space2), c = signature(cooking);
+    double ab = agreement(a, b);
+    System.out.printf("%.2f (%b) and %.2f%n", ab, Math.abs(ab - 5.0 / 9) < 0.13, agreement(a, c));
+    System.out.println();
+
+    // averaged over 400 pairs the error shrinks 20 times, so a biased estimator would show
+    System.out.println("Testing the estimator's bias over 400 pairs with Jaccard 5/9, should be within 0.02:");
+    double sum = 0;
+    for (int pair = 0; pair < 400; ++pair) {
+      String shared = "";
+      for (int w = 0; w < 5; ++w)
+        shared += " shared" + pair + "x" + w;
+      sum += agreement(signature(TermVector.of(shared + " left" + pair + "x0 left" + pair + "x1")),
+                       signature(TermVector.of(shared + " right" + pair + "x0 right" + pair + "x1")));
+    }
+    System.out.printf("%.3f (%b)%n", sum / 400, Math.abs(sum / 400 - 5.0 / 9) < 0.02);
+    System.out.println();
+
+    System.out.println("Testing candidates, should find 0 and 1 but not 2, then only 0 after removing 1:");
+    MinHashIndex index = new MinHashIndex();
+    index.add(0, a);
+    index.add(1, b);
+    index.add(2, c);
+    BitSet found = new BitSet();
+    index.candidates(a, found);
+    System.out.println(found);
+    index.remove(1);
+    found.clear();
+    index.candidates(a, found);
+    System.out.println(found + " (" + index.size() + " filed)");
+    System.out.println();
+
+    System.out.println("Testing topTerms on a long vector, should keep all 13 frequent terms, so 13 of 16:");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 40; ++i)
+      sb.append(("w" + i + " ").repeat((i % 20 == 0) ? 1 : (i % 3 == 0) ? 5 : 1));
+    TermVector v = TermVector.of(sb.toString());
+    int frequent = 0;
+    for (int t : topTerms(v))
+      if (v.freq(t) == 5)
+        ++frequent;
+    System.out.println(frequent + " of " + topTerms(v).length + " have frequency 5");
+  }
+}
@@ -0,0 +1,94 @@
+/* PhraseQuery.java
+   One quoted phrase of a search. Its words must appear in an article in
+   that order, next to each other: "outer space" only matches articles
+   containing "outer" immediately followed by "space". A number after the
+   closing quote allows that many extra words between each quoted word and
+   the next, so "apollo moon"~3 also matches "Apollo missions to the Moon".
+   Blacklisted words in quotes are not searched for, but still hold their
+   place: "lord of the rings" matches "rings" three words after "lord".
+
+   BooleanQuery finds the quotes in a search phrase; the index answers
+   each phrase from the positions kept in its postings (see DocIterator).
+ */
+
+import java.util.*;
+
+public class PhraseQuery {
+
+  final String[] terms;
+  final int[] ids;       // TermDictionary ids, -1 for a term no article contains
+  final int[] offsets;   // each term's position relative to the first
+  final int slop;        // extra words allowed between neighbouring terms
+
+  private PhraseQuery(String[] terms, int[] ids, int[] offsets, int slop) {
+    this.terms = terms;
+    this.ids = ids;
+    this.offsets = offsets;
+    this.slop = slop;
+  }
+
+  /* of analyzes the words between a pair of quotes
+
+     @param:  quoted The text between the quotes
+     @param:  slop   The number after the closing quote, or 0
+     @return:        The phrase, with no terms if every word is blacklisted
+  */
+  public static PhraseQuery of(String quoted, int slop) {
+    final ArrayList<String> terms = new ArrayList<String>();
+    final ArrayList<Integer> positions = new ArrayList<Integer>();
+    Analyzer.forThread().analyze(quoted, new Analyzer.PositionConsumer() {
+      public void token(char[] buf, int len, int position) {
+        terms.add(new String(buf, 0, len));
+        positions.add(position);
+      }
+    });
+    int n = terms.size();
+    int[] ids = new int[n];
+    int[] offsets = new int[n];
+    for (int j = 0; j < n; ++j) {
+      ids[j] = TermDictionary.shared().lookup(terms.get(j));
+      offsets[j] = positions.get(j) - positions.get(0);
+    }
+    return new PhraseQuery(terms.toArray(new String[n]), ids, offsets, slop);
+  }
+
+  /* Returns the number of searchable terms in the phrase */
+  public int size() {
+    return ids.length;
+  }
+
+  /* Returns the phrase in a normal form, e.g. "lord _ _ rings"~1, so that
+     equal phrases give equal strings (for QueryCache keys)
+  */
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append('"');
+    for (int j = 0; j < size(); ++j) {
+      if (j > 0) {
+        for (int gap = offsets[j] - offsets[j - 1]; gap > 1; --gap)
+          sb.append(" _");
+        sb.append(' ');
+      }
+      sb.append(terms[j]);
+    }
+    sb.append('"');
+    if (slop > 0)
+      sb.append('~').append(slop);
+    return sb.toString();
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) {
+    System.out.println("Testing of, should be \"outer space\":");
+    System.out.println(PhraseQuery.of("Outer Space!", 0));
+    System.out.println();
+
+    System.out.println("Testing blacklisted words and proximity, should be \"lord _ _ rings\"~2:");
+    System.out.println(PhraseQuery.of("the lord of the rings", 2));
+    System.out.println();
+
+    System.out.println("Testing only blacklisted words, should be 0 terms:");
+    System.out.println(PhraseQuery.of("of the", 0).size() + " terms");
+  }
+}
@@ -0,0 +1,433 @@
+/* PostingList.java
+   The postings of one term: the doc ids of the articles containing it, in
+   increasing order, and how many times the term appears in each. Entries
+   are compressed into a single byte array rather than one object per posting.
+
+   Each entry stores the gap from the previous doc id instead of the doc id
+   itself, as a variable-length integer (7 bits per byte, high bit set on all
+   but the last byte), so the small gaps of common terms take one byte. The
+   lowest bit of the gap says whether the frequency is 1; only other
+   frequencies are written, as a second variable-length integer.
+
+   The positions of the term in each article are kept in a second byte
+   array, so that searches which only need doc ids and frequencies never
+   read them. Each entry's positions are written as the byte length of
+   their encoding followed by the gaps between them, all as variable-length
+   integers; an entry added without positions has a length of 0.
+
+   Every BLOCK entries the list records a skip pointer: the byte offsets where
+   the block starts in both arrays and the doc id just before it. A Cursor uses these to
+   jump over whole blocks when it only needs doc ids past some target, and
+   decodes entries into its own fields, so walking a list allocates nothing.
+
+   Removing an article does not rewrite the bytes. Its entry stays in place
+   and is skipped by searches (the index knows which doc ids are gone), and
+   only the count of live entries goes down. Once dead entries outnumber
+   live ones the list is compacted, so removal costs O(1) per term on
+   average.
+ */
+
+import java.util.*;
+
+public class PostingList {
+
+  static final int BLOCK = 128;    // entries between skip pointers
+
+  private byte[] data = new byte[8];
+  private int length = 0;    // number of bytes used in data
+  private int size = 0;      // number of entries, including those of removed articles
+  private int live = 0;      // number of entries whose article is still in the index
+  private int lastDoc = -1;  // doc id of the last entry
+
+  private byte[] positions = new byte[8];
+  private int positionsLength = 0;  // number of bytes used in positions
+
+  // skipDocs[b] is the doc id just before block b, skipOffsets[b] and skipPositions[b] where
+  // block b starts in data and in positions
+  private int[] skipDocs;
+  private int[] skipOffsets;
+  private int[] skipPositions;
+
+  /* Appends a posting. doc must be larger than every doc id already in the list. */
+  public void append(int doc, int freq) {
+    append(doc, freq, null, 0);
+  }
+
+  /* Same as previous, with the term's positions in the article:
+     pos[from] to pos[from + freq - 1], in increasing order. pos may be null.
+  */
+  public void append(int doc, int freq, int[] pos, int from) {
+    if (size % BLOCK == 0 && size > 0)
+      addSkip();
+    appendPositions(freq, pos, from);
+    int gap = doc - lastDoc;
+    if (length + 10 > data.length)  // two varints take at most 10 bytes
+      data = Arrays.copyOf(data, 2 * data.length + 10);
+    if (freq == 1) {
+      length = writeVInt(data, length, (gap << 1) | 1);
+    } else {
+      length = writeVInt(data, length, gap << 1);
+      length = writeVInt(data, length, freq);
+    }
+    lastDoc = doc;
+    ++size;
+    ++live;
+  }
+
+  private void appendPositions(int freq, int[] pos, int from) {
+    int count = (pos == null) ? 0 : freq;
+    if (positionsLength + 5 * (count + 1) > positions.length)
+      positions = Arrays.copyOf(positions, 2 * positions.length + 5 * (count + 1));
+    int bytes = 0;                          // size of the gaps once encoded
+    for (int i = 0, prev = 0; i < count; prev = pos[from + i], ++i)
+      bytes += vIntSize(pos[from + i] - prev);
+    positionsLength = writeVInt(positions, positionsLength, bytes);
+    for (int i = 0, prev = 0; i < count; prev = pos[from + i], ++i)
+      positionsLength = writeVInt(positions, positionsLength, pos[from + i] - prev);
+  }
+
+  private static int vIntSize(int v) {
+    int n = 1;
+    while ((v & ~0x7f) != 0) {
+      v >>>= 7;
+      ++n;
+    }
+    return n;
+  }
+
+  private void addSkip() {
+    int b = size / BLOCK;
+    if (skipDocs == null) {
+      skipDocs = new int[4];
+      skipOffsets = new int[4];
+      skipPositions = new int[4];
+    } else if (b == skipDocs.length) {
+      skipDocs = Arrays.copyOf(skipDocs, 2 * b);
+      skipOffsets = Arrays.copyOf(skipOffsets, 2 * b);
+      skipPositions = Arrays.copyOf(skipPositions, 2 * b);
+    }
+    skipDocs[b] = lastDoc;
+    skipOffsets[b] = length;
+    skipPositions[b] = positionsLength;
+  }
+
+  private static int writeVInt(byte[] b, int pos, int v) {
+    while ((v & ~0x7f) != 0) {
+      b[pos++] = (byte) ((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    b[pos++] = (byte) v;
+    return pos;
+  }
+
+  /* Returns the number of entries, including dead ones */
+  public int size() {
+    return size;
+  }
+
+  /* Returns the number of live articles containing the term */
+  public int docFreq() {
+    return live;
+  }
+
+  /* Returns the number of bytes the encoded entries take */
+  public int bytes() {
+    return length;
+  }
+
+  /* Returns the number of bytes the encoded positions take */
+  public int positionBytes() {
+    return positionsLength;
+  }
+
+  /* Returns an estimate of the heap the list takes, in bytes */
+  public long memoryBytes() {
+    long bytes = 56 + 16 + data.length + 16 + positions.length;  // this object, and the two arrays
+    if (skipDocs != null)
+      bytes += 3 * (16 + 4L * skipDocs.length);
+    return bytes;
+  }
+
+  /* Records that one of the list's articles was removed from the index */
+  public void markRemoved() {
+    --live;
+  }
+
+  /* Returns true once dead entries outnumber live ones */
+  public boolean needsCompaction() {
+    return size - live > live;
+  }
+
+  /* compact drops the entries of removed articles by re-encoding the live ones
+
+     @param: alive alive[doc] tells whether the article with that doc id is still indexed
+  */
+  public void compact(BitSet alive) {
+    compact(alive, null);
+  }
+
+  /* Same as previous, but each live entry's doc id d becomes renumber[d].
+     renumber must keep the doc ids in the same order.
+  */
+  public void compact(BitSet alive, int[] renumber) {
+    PostingList kept = new PostingList();
+    Cursor c = new Cursor();
+    c.reset(this);
+    while (c.next()) {
+      if (alive.get(c.doc())) {
+        int n = c.positions();
+        int doc = (renumber == null) ? c.doc() : renumber[c.doc()];
+        kept.append(doc, c.freq(), (n == 0) ? null : c.positionBuffer(), 0);
+      }
+    }
+    data = (kept.length < kept.data.length / 2) ? Arrays.copyOf(kept.data, kept.length + 8) : kept.data;
+    length = kept.length;
+    positions = (kept.positionsLength < kept.positions.length / 2)
+              ? Arrays.copyOf(kept.positions, kept.positionsLength + 8) : kept.positions;
+    positionsLength = kept.positionsLength;
+    size = kept.size;
+    live = kept.size;
+    lastDoc = kept.lastDoc;
+    skipDocs = kept.skipDocs;
+    skipOffsets = kept.skipOffsets;
+    skipPositions = kept.skipPositions;
+  }
+
+
+  /* Cursor walks the entries of a PostingList in doc id order. One cursor
+     can be reset onto any number of lists, so a search needs only one.
+  */
+  public static class Cursor {
+    private PostingList list;
+    private int pos;      // offset of the next entry in list.data
+    private int index;    // number of entries decoded so far
+    private int doc;
+    private int freq;
+
+    // positions are only decoded when asked for: ppos is the offset in list.positions
+    // of the positions of entry pindex, which is at most the current entry
+    private int ppos;
+    private int pindex;
+    private int pcount;   // number of positions in buf, once pindex has passed the current entry
+    private int[] buf = new int[16];
+
+    /* Points the cursor before the first entry of list */
+    public void reset(PostingList list) {
+      this.list = list;
+      pos = 0;
+      index = 0;
+      doc = -1;
+      freq = 0;
+      ppos = 0;
+      pindex = 0;
+    }
+
+    /* Moves to the next entry. Returns false once the list is used up. */
+    public boolean next() {
+      if (index == list.size)
+        return false;
+      byte[] b = list.data;
+      int v = b[pos++];
+      if (v < 0) {    // more than one byte
+        v &= 0x7f;
+        int shift = 7;
+        int x;
+        do {
+          x = b[pos++];
+          v |= (x & 0x7f) << shift;
+          shift += 7;
+        } while (x < 0);
+      }
+      doc += v >>> 1;
+      if ((v & 1) != 0) {
+        freq = 1;
+      } else {
+        int f = b[pos++];
+        if (f < 0) {
+          f &= 0x7f;
+          int shift = 7;
+          int x;
+          do {
+            x = b[pos++];
+            f |= (x & 0x7f) << shift;
+            shift += 7;
+          } while (x < 0);
+        }
+        freq = f;
+      }
+      ++index;
+      return true;
+    }
+
+    /* advance moves to the first entry with a doc id of at least target,
+       skipping whole blocks whose doc ids are all smaller.
+       Returns false if there is no such entry. The skip pointers are
+       searched by galloping: steps of 1, 2, 4... blocks ahead until one
+       passes target, then a binary search within the last step, so short
+       moves (as when intersecting lists of similar length) stay cheap.
+    */
+    public boolean advance(int target) {
+      if (index > 0 && doc >= target)
+        return true;
+      int[] skips = list.skipDocs;
+      if (skips != null) {
+        int blocks = (list.size - 1) / BLOCK + 1;
+        int b = index / BLOCK;      // block the next entry is in
+        int lo = b + 1, hi = lo;    // find the last block starting after a doc below target
+        for (int step = 1; hi < blocks && skips[hi] < target; step <<= 1) {
+          lo = hi + 1;
+          hi += step;
+        }
+        hi = Math.min(hi, blocks);
+        while (lo < hi) {
+          int mid = (lo + hi) >>> 1;
+          if (skips[mid] < target)
+            lo = mid + 1;
+          else
+            hi = mid;
+        }
+        int to = lo - 1;
+        if (to > b) {
+          pos = list.skipOffsets[to];
+          index = to * BLOCK;
+          doc = skips[to];
+          ppos = list.skipPositions[to];
+          pindex = index;
+        }
+      }
+      while (next())
+        if (doc >= target)
+          return true;
+      return false;
+    }
+
+    public int doc() {
+      return doc;
+    }
+
+    public int freq() {
+      return freq;
+    }
+
+    /* positions decodes the positions of the current entry into the
+       buffer returned by positionBuffer, and returns how many there are
+       (0 if the entry was added without them). Entries passed over since
+       the last call are skipped by their byte length, not decoded.
+    */
+    public int positions() {
+      if (pindex == index)           // already decoded
+        return pcount;
+      byte[] b = list.positions;
+      while (pindex < index - 1) {   // skip the positions of earlier entries
+        int v = b[ppos++];
+        if (v < 0)
+          v = readRest(b, v);
+        ppos += v;
+        ++pindex;
+      }
+      int bytes = b[ppos++];
+      if (bytes < 0)
+        bytes = readRest(b, bytes);
+      int end = ppos + bytes;
+      int n = 0;
+      int p = 0;
+      while (ppos < end) {
+        int v = b[ppos++];
+        if (v < 0)
+          v = readRest(b, v);
+        p += v;
+        if (n == buf.length)
+          buf = Arrays.copyOf(buf, 2 * n);
+        buf[n++] = p;
+      }
+      ++pindex;
+      pcount = n;
+      return n;
+    }
+
+    // finishes decoding a variable-length integer whose first byte, v, had the high bit set
+    private int readRest(byte[] b, int v) {
+      v &= 0x7f;
+      int shift = 7;
+      int x;
+      do {
+        x = b[ppos++];
+        v |= (x & 0x7f) << shift;
+        shift += 7;
+      } while (x < 0);
+      return v;
+    }
+
+    /* Returns the buffer filled by the last call to positions */
+    public int[] positionBuffer() {
+      return buf;
+    }
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) {
+    PostingList list = new PostingList();
+    for (int doc = 0; doc < 100000; doc += 3)
+      list.append(doc, (doc % 7 == 0) ? 300 : 1);
+
+    System.out.println("Testing encoding of 33334 postings with gap 3, should take 42858 bytes\n(1 byte per gap, 2 more for each freq of 300):");
+    System.out.println(list.size() + " postings in " + list.bytes() + " bytes");
+    System.out.println();
+
+    System.out.println("Testing next, should count 33334 postings and sum freqs to 1457172:");
+    Cursor c = new Cursor();
+    c.reset(list);
+    int count = 0;
+    long sum = 0;
+    while (c.next()) {
+      ++count;
+      sum += c.freq();
+    }
+    System.out.println(count + " " + sum);
+    System.out.println();
+
+    System.out.println("Testing advance, should be 50001 50004 99999 false:");
+    c.reset(list);
+    c.advance(50000);
+    System.out.print(c.doc() + " ");
+    c.advance(50002);
+    System.out.print(c.doc() + " ");
+    c.advance(99998);
+    System.out.print(c.doc() + " ");
+    System.out.println(c.advance(100000));
+    System.out.println();
+
+    System.out.println("Testing compact, keeping even doc ids, should be 16667 postings, then doc 42 with freq 300:");
+    BitSet alive = new BitSet();
+    for (int doc = 0; doc < 100000; doc += 2)
+      alive.set(doc);
+    list.compact(alive);
+    c.reset(list);
+    c.advance(40);
+    System.out.println(list.size() + " postings, then doc " + c.doc() + " with freq " + c.freq());
+    System.out.println();
+
+    System.out.println("Testing positions of 1000 postings, should be 3 positions 7 1600 2007 at doc 600,\n" +
+                       "then 4 at doc 999 after skipping blocks, and 3 at doc 300 (1300) after compact:");
+    PostingList p = new PostingList();
+    for (int doc = 0; doc < 1000; ++doc) {
+      int[] pos = { 7, 1000 + doc, 2007, 5000 };
+      p.append(doc, (doc == 999) ? 4 : 3, pos, 0);
+    }
+    c.reset(p);
+    c.advance(600);
+    int n = c.positions();
+    System.out.print(n + " positions " + c.positionBuffer()[0] + " " + c.positionBuffer()[1] + " " +
+                     c.positionBuffer()[2] + " at doc " + c.doc() + ", then ");
+    c.advance(999);
+    System.out.print(c.positions() + " at doc " + c.doc() + ", ");
+    BitSet even = new BitSet();
+    for (int doc = 0; doc < 1000; doc += 2)
+      even.set(doc);
+    p.compact(even);
+    c.reset(p);
+    c.advance(300);
+    System.out.println(c.positions() + " at doc " + c.doc() + " (" + c.positionBuffer()[1] + ")");
+  }
+}
@@ -0,0 +1,167 @@
+/* QueryCache.java
+   A bounded cache of search results, keyed by the normalized search phrase.
+   Phrases that analyze to the same terms ("Moon  phases", "phases of the
+   moon!") share one entry, since they always get the same results. Once
+   the cache is full the least recently used entry is evicted. Javapedia
+   keeps the ranked matches (articles and scores) rather than their
+   rendered text, so an entry takes a few words per match however long the
+   articles are, and the matches are rendered again on every hit.
+
+   Every entry remembers the index generation it was computed at (see
+   InvertedIndex.generation()). Any change to the corpus bumps the
+   generation, so an entry is only returned while the articles it was
+   computed from are unchanged. The cache counts hits and misses.
+
+   All methods are synchronized, so one cache can be shared by threads.
+ */
+
+import java.util.*;
+
+public class QueryCache<V> {
+
+  private static class Entry<V> {
+    final long generation;
+    final V value;
+
+    Entry(long generation, V value) {
+      this.generation = generation;
+      this.value = value;
+    }
+  }
+
+  private final int capacity;
+  private final LinkedHashMap<String, Entry<V>> entries;
+  private long generation = 0;    // newest generation stored so far
+  private long hits = 0;
+  private long misses = 0;
+
+  /* @param: capacity The largest number of results kept */
+  public QueryCache(final int capacity) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("capacity must be at least 1");
+    this.capacity = capacity;
+    // access order, so the eldest entry is the least recently used
+    this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /* key normalizes a search phrase so that phrases with the same terms get
+     the same key: the phrase is analyzed like an article, its terms sorted,
+     and, if it has operators or quotes, its BooleanQuery in normal form,
+     the ranking mode and the number of results appended.
+
+     @param:  phrase The search phrase as typed
+     @param:  mode   The name of the ranking function
+     @param:  k      The number of results wanted
+     @return: key    The cache key
+  */
+  public static String key(String phrase, String mode, int k) {
+    BooleanQuery filter = BooleanQuery.hasOperators(phrase) ? BooleanQuery.parse(phrase) : null;
+    String[] terms = Analyzer.tokenize((filter == null) ? phrase : filter.text());
+    Arrays.sort(terms);
+    StringBuilder sb = new StringBuilder();
+    for (String t : terms)
+      sb.append(t).append(' ');
+    if (filter != null && !filter.isPlain())
+      sb.append(filter);
+    return sb.append('\t').append(mode).append('\t').append(k).toString();
+  }
+
+  /* get returns the result stored for key, or null if there is none or it
+     was computed before the corpus last changed
+
+     @param: key        The normalized query
+     @param: generation The index generation now
+  */
+  public synchronized V get(String key, long generation) {
+    Entry<V> e = entries.get(key);
+    if (e != null && e.generation == generation) {
+      ++hits;
+      return e.value;
+    }
+    if (e != null)
+      entries.remove(key);  // stale
+    ++misses;
+    return null;
+  }
+
+  /* put stores a result. Storing a result from a newer generation drops
+     every older entry, since none of them can be returned again.
+
+     @param: key        The normalized query
+     @param: generation The index generation the result was computed at,
+                        read before the search started
+     @param: value      The result
+  */
+  public synchronized void put(String key, long generation, V value) {
+    if (generation < this.generation)   // the corpus changed while this result was computed
+      return;
+    if (generation > this.generation) {
+      entries.clear();
+      this.generation = generation;
+    }
+    entries.put(key, new Entry<V>(generation, value));
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long misses() {
+    return misses;
+  }
+
+  public synchronized String toString() {
+    long total = hits + misses;
+    return "Query cache: " + entries.size() + "/" + capacity + " results, " + hits + " hits, " +
+      misses + " misses" + ((total == 0) ? "" : String.format(" (%.1f%% hit rate)", 100.0 * hits / total));
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) {
+    QueryCache<String> cache = new QueryCache<String>(2);
+
+    System.out.println("Testing key, should be true false false true false:");
+    System.out.println(key("Phases of the MOON!", "cosine", 5).equals(key("moon phases", "cosine", 5)) + " " +
+                       key("moon phases", "cosine", 5).equals(key("moon phases", "bm25", 5)) + " " +
+                       key("\"moon phases\"", "cosine", 5).equals(key("\"phases moon\"", "cosine", 5)) + " " +
+                       key("moon OR phases", "cosine", 5).equals(key("phases moon", "cosine", 5)) + " " +
+                       key("+moon -phases", "cosine", 5).equals(key("+moon -landing", "cosine", 5)));
+    System.out.println();
+
+    System.out.println("Testing get and put, should be null then moon:");
+    System.out.println(cache.get("moon", 0));
+    cache.put("moon", 0, "moon");
+    System.out.println(cache.get("moon", 0));
+    System.out.println();
+
+    System.out.println("Testing LRU eviction, should be moon null mars:");
+    cache.put("sun", 0, "sun");
+    cache.get("moon", 0);           // moon is now more recent than sun
+    cache.put("mars", 0, "mars");   // evicts sun
+    System.out.println(cache.get("moon", 0) + " " + cache.get("sun", 0) + " " + cache.get("mars", 0));
+    System.out.println();
+
+    System.out.println("Testing invalidation, should be null and a stale put ignored (null):");
+    System.out.println(cache.get("moon", 1));
+    cache.put("mars", 2, "mars");
+    cache.put("moon", 1, "moon");   // computed before generation 2, never stored
+    System.out.println(cache.get("moon", 2));
+    System.out.println();
+
+    System.out.println("Testing counters, should be 4 hits and 4 misses:");
+    System.out.println(cache.hits() + " hits and " + cache.misses() + " misses");
+  }
+}
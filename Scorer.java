@@ -0,0 +1,48 @@
+/* Scorer.java
+   A ranking function used by phrase searches. The index adds up the
+   weight of every query term found in an article, then asks the scorer
+   to turn that sum into the article's final score. Corpus statistics
+   (number of articles, document frequencies, average article length)
+   are read from the InvertedIndex, which keeps them up to date as
+   articles are added and removed.
+ */
+
+public interface Scorer {
+
+  /* Returns the name of the score, as shown next to each match */
+  String name();
+
+  /* Returns how much one query term adds to an article's score
+
+     @param: queryFreq The number of times the term appears in the query
+     @param: termFreq  The number of times the term appears in the article
+     @param: docFreq   The number of articles containing the term
+     @param: doc       The term vector of the article
+     @param: index     The index holding the corpus statistics
+  */
+  double weight(int queryFreq, int termFreq, int docFreq, TermVector doc, InvertedIndex index);
+
+  /* Turns the summed term weights of an article into its final score */
+  double finish(double sum, TermVector query, TermVector doc, InvertedIndex index);
+
+  /* Returns true if query terms found in most articles may be skipped.
+     Only scorers that already give such terms a tiny weight should allow it.
+  */
+  boolean allowsPruning();
+
+  /* forName returns the scorer for a short mode name, as used by the
+     server and batch mode: cosine, tfidf or bm25
+
+     @param:  mode The mode name, or null for cosine
+     @return:      The Scorer
+  */
+  static Scorer forName(String mode) {
+    if (mode == null || mode.equals("cosine"))
+      return new CosineScorer();
+    if (mode.equals("tfidf"))
+      return new TfIdfScorer();
+    if (mode.equals("bm25"))
+      return new Bm25Scorer();
+    throw new IllegalArgumentException("Unknown mode " + mode + ", use cosine, tfidf or bm25.");
+  }
+}
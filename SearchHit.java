@@ -0,0 +1,30 @@
+/* SearchHit.java
+   One match returned by a phrase search: the article and the score it
+   got against the search phrase. Keeping the score here instead of on
+   the Article lets several searches run at the same time.
+ */
+
+public class SearchHit implements Comparable<SearchHit> {
+
+  private final Article article;
+  private final double score;
+
+  public SearchHit(Article article, double score) {
+    this.article = article;
+    this.score = score;
+  }
+
+  public Article getArticle() {
+    return article;
+  }
+
+  public double getScore() {
+    return score;
+  }
+
+  /* Orders hits by score, breaking ties by title so results are repeatable */
+  public int compareTo(SearchHit other) {
+    int c = Double.compare(score, other.score);
+    return (c != 0) ? c : other.article.compareTo(article);
+  }
+}
@@ -0,0 +1,396 @@
+/* SearchServer.java
+   Serves one ArticleTable over HTTP, so that many clients can search
+   and edit the same in-memory corpus at once. Started with
+
+     java Javapedia --server [port]
+
+   Endpoints (parameters are URL-encoded in the query string, responses are
+   UTF-8 plain text):
+
+     GET  /title?t=<title>&lines=<n>               the article, or 404; with lines, only
+                                                   its first n lines
+     GET  /search?q=<phrase>&k=<n>&mode=<mode>     the top n matches (default 3);
+                                                   mode is cosine (default), tfidf or bm25
+     GET  /related?t=<title>&k=<n>                 the n articles most similar to the
+                                                   article (default 3), or 404
+     POST /add?t=<title>                           adds the request body as the article's
+                                                   text, replacing any article with that title;
+                                                   the title must be one line
+     POST /delete?t=<title>                        deletes the article, or 404
+     GET  /stats                                   the report of menu option 7
+
+   When the server is given an ArticleLog, /add and /delete answer only
+   once the change is on disk; changes made by many clients at once share
+   fsyncs. If the log cannot be written they answer 503 with the reason.
+   The change may then be in the table, but it will not survive a restart.
+
+   Each request runs on its own virtual thread when the JVM has them (Java 21
+   and later), and otherwise on a thread from a cached pool. Responses are
+   sent chunked and written as they are rendered, so a large result never
+   has to be held in memory in full before the first byte goes out.
+ */
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class SearchServer {
+
+  private static final int MAX_RESULTS = Javapedia.MAX_RESULTS;  // most matches one search may ask for
+  private static final int MAX_BODY = 16 << 20;    // largest article that may be added, in bytes
+
+  private final ArticleTable T;
+  private final ArticleLog log;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /* @param: T    The table to serve. Use a ConcurrentArticleHashTable if
+                  clients will add or delete articles.
+     @param: port The port to listen on, or 0 for any free port
+  */
+  public SearchServer(ArticleTable T, int port) throws IOException {
+    this(T, null, port);
+  }
+
+  /* Same as previous, but /add and /delete are written to log and only
+     answered once they are on disk
+  */
+  public SearchServer(ArticleTable T, ArticleLog log, int port) throws IOException {
+    this.T = T;
+    this.log = log;
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.executor = newExecutor();
+    server.setExecutor(executor);
+
+    server.createContext("/title", new Endpoint("GET") {
+      void handle(HttpExchange ex, Map<String, String> params) throws IOException {
+        Article a = T.lookup(required(params, "t"));
+        int lines = number(params.get("lines"), Integer.MAX_VALUE);
+        if (lines < 1)
+          throw new IllegalArgumentException("lines must be at least 1");
+        if (a == null) {
+          send(ex, 404, "Article not found!\n");
+          return;
+        }
+        Writer out = stream(ex, 200);
+        new ArticleRenderer().setMaxLines(lines).render(a, out);
+        out.flush();
+      }
+    });
+
+    server.createContext("/search", new Endpoint("GET") {
+      void handle(HttpExchange ex, Map<String, String> params) throws IOException {
+        String phrase = required(params, "q");
+        Scorer scorer = Scorer.forName(params.get("mode"));
+        int k = number(params.get("k"), 3);
+        if (k < 1 || k > MAX_RESULTS)
+          throw new IllegalArgumentException("k must be between 1 and " + MAX_RESULTS);
+        Writer out = stream(ex, 200);
+        Javapedia.phraseSearch(phrase, T, scorer, k, out);
+        out.flush();
+      }
+    });
+
+    server.createContext("/related", new Endpoint("GET") {
+      void handle(HttpExchange ex, Map<String, String> params) throws IOException {
+        String title = required(params, "t");
+        int k = number(params.get("k"), 3);
+        if (k < 1 || k > MAX_RESULTS)
+          throw new IllegalArgumentException("k must be between 1 and " + MAX_RESULTS);
+        String related = Javapedia.relatedArticles(title, T, k);
+        if (related == null)
+          send(ex, 404, "Article not found!\n");
+        else
+          send(ex, 200, related);
+      }
+    });
+
+    server.createContext("/add", new Endpoint("POST") {
+      void handle(HttpExchange ex, Map<String, String> params) throws IOException {
+        String title = required(params, "t");
+        if (title.indexOf('\n') >= 0 || title.indexOf('\r') >= 0)  // an article file's first line is its title
+          throw new IllegalArgumentException("Title must not contain line breaks.");
+        byte[] body = readBody(ex);
+        if (body == null) {
+          send(ex, 413, "Article is too long.\n");
+          return;
+        }
+        // parse the title and body like an article file, so line breaks are normalized the same way
+        Article a = CorpusLoader.parse(title + "\n" + new String(body, StandardCharsets.UTF_8), null);
+        boolean replaced = T.member(title);
+        try {
+          if (log != null)
+            log.update(T, a);
+          else
+            T.update(a);
+        } catch (IOException e) {
+          unsaved(ex, e);
+          return;
+        }
+        send(ex, replaced ? 200 : 201, (replaced ? "Replaced" : "Added") + " \"" + title + "\".\n");
+      }
+    });
+
+    server.createContext("/delete", new Endpoint("POST") {
+      void handle(HttpExchange ex, Map<String, String> params) throws IOException {
+        String title = required(params, "t");
+        boolean found;
+        try {
+          if (log != null) {
+            found = log.delete(T, title);
+          } else {
+            found = T.member(title);
+            T.delete(title);
+          }
+        } catch (IOException e) {
+          unsaved(ex, e);
+          return;
+        }
+        if (!found) {
+          send(ex, 404, "Article not found!\n");
+          return;
+        }
+        send(ex, 200, "Deleted \"" + title + "\".\n");
+      }
+    });
+
+    server.createContext("/stats", new Endpoint("GET") {
+      void handle(HttpExchange ex, Map<String, String> params) throws IOException {
+        send(ex, 200, Metrics.dump(T));
+      }
+    });
+  }
+
+  /* newExecutor returns an executor that starts a virtual thread per task
+     if the JVM supports them, or a cached thread pool. Reflection keeps the
+     code compiling on Java versions without virtual threads.
+  */
+  static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  /* Stops accepting requests, waits up to delay seconds for those in
+     progress, then stops their threads
+  */
+  public void stop(int delay) {
+    server.stop(delay);
+    executor.shutdownNow();
+  }
+
+  /* Returns the port the server is listening on */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+
+  /* Endpoint checks the request method, parses the query string, and turns
+     bad parameters into 400 responses. The exchange is always closed.
+  */
+  private abstract static class Endpoint implements HttpHandler {
+    private final String method;
+
+    Endpoint(String method) {
+      this.method = method;
+    }
+
+    abstract void handle(HttpExchange ex, Map<String, String> params) throws IOException;
+
+    public void handle(HttpExchange ex) throws IOException {
+      try {
+        if (!ex.getRequestMethod().equals(method)) {
+          ex.getResponseHeaders().set("Allow", method);
+          send(ex, 405, "Use " + method + ".\n");
+          return;
+        }
+        handle(ex, params(ex.getRequestURI().getRawQuery()));
+      } catch (IllegalArgumentException e) {
+        if (ex.getResponseCode() < 0)   // nothing sent yet
+          send(ex, 400, e.getMessage() + "\n");
+      } finally {
+        ex.close();
+      }
+    }
+  }
+
+  /* Parses a raw query string such as "q=moon+phases&k=5" */
+  static Map<String, String> params(String query) {
+    Map<String, String> params = new HashMap<String, String>();
+    if (query == null)
+      return params;
+    for (String pair : query.split("&")) {
+      int eq = pair.indexOf('=');
+      String name = (eq < 0) ? pair : pair.substring(0, eq);
+      String value = (eq < 0) ? "" : pair.substring(eq + 1);
+      params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+    }
+    return params;
+  }
+
+  private static String required(Map<String, String> params, String name) {
+    String value = params.get(name);
+    if (value == null || value.isEmpty())
+      throw new IllegalArgumentException("Missing parameter " + name + ".");
+    return value;
+  }
+
+  private static int number(String value, int otherwise) {
+    if (value == null)
+      return otherwise;
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not a number: " + value);
+    }
+  }
+
+  /* Reads the request body, or returns null if it is longer than MAX_BODY */
+  private static byte[] readBody(HttpExchange ex) throws IOException {
+    InputStream in = ex.getRequestBody();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buf = new byte[8192];
+    for (int n; (n = in.read(buf)) > 0; ) {
+      if (body.size() + n > MAX_BODY)
+        return null;
+      body.write(buf, 0, n);
+    }
+    return body.toByteArray();
+  }
+
+  /* Starts a chunked response and returns a writer for its body */
+  private static Writer stream(HttpExchange ex, int code) throws IOException {
+    ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    ex.sendResponseHeaders(code, 0);
+    return new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8), 8192);
+  }
+
+  /* Answers a change the log could not write, which is not durable */
+  private static void unsaved(HttpExchange ex, IOException e) throws IOException {
+    send(ex, 503, "Could not save the change: " + e.getMessage() + "\n");
+  }
+
+  /* Sends a short response all at once */
+  private static void send(HttpExchange ex, int code, String text) throws IOException {
+    byte[] b = text.getBytes(StandardCharsets.UTF_8);
+    ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    ex.sendResponseHeaders(code, b.length);
+    ex.getResponseBody().write(b);
+  }
+
+
+  /* Main method with unit tests, run against a server on a free port */
+  public static void main(String[] args) throws Exception {
+    ConcurrentArticleHashTable T = new ConcurrentArticleHashTable();
+    T.insert(new Article("Cars", "Cars have wheels\n"));
+    T.insert(new Article("Boats", "Boats float on water\n"));
+    SearchServer server = new SearchServer(T, 0);
+    server.start();
+    String base = "http://localhost:" + server.getPort();
+
+    try {
+      System.out.println("Testing /title, should be 200 and the Cars article:");
+      System.out.println(get(base + "/title?t=Cars"));
+
+      System.out.println("Testing /title with lines=1, should be 200, the title, then " + ArticleRenderer.TRUNCATED.trim() + ":");
+      System.out.println(get(base + "/title?t=Cars&lines=1"));
+
+      System.out.println("Testing /title for a missing article, should be 404:");
+      System.out.println(get(base + "/title?t=Trucks"));
+
+      System.out.println("Testing /add, should be 201 then a search for \"big wheels\" finding Trucks first:");
+      System.out.println(post(base + "/add?t=Trucks", "Trucks have big\r\nwheels"));
+      String found = get(base + "/search?q=big+wheels&k=1");
+      System.out.println(found.substring(0, found.indexOf('\n')) + " ... " + found.contains("Trucks"));
+      System.out.println();
+
+      System.out.println("Testing /related, should be 200 with Cars for Trucks, then 404 for a missing article:");
+      System.out.println(get(base + "/related?t=Trucks"));
+      System.out.println(get(base + "/related?t=Planes"));
+
+      System.out.println("Testing /delete, should be 200 then 404:");
+      System.out.println(post(base + "/delete?t=Trucks", ""));
+      System.out.println(post(base + "/delete?t=Trucks", ""));
+
+      System.out.println("Testing bad requests, should be 400 400 405 400 (the last a title with a line break):");
+      System.out.println(get(base + "/search").substring(0, 3) + " " +
+                         get(base + "/search?q=x&mode=fancy").substring(0, 3) + " " +
+                         get(base + "/delete?t=Cars").substring(0, 3) + " " +
+                         post(base + "/add?t=Two%0Alines", "body").substring(0, 3));
+      System.out.println();
+
+      System.out.println("Testing 32 concurrent searches, should all be 200:");
+      ExecutorService clients = Executors.newFixedThreadPool(32);
+      List<Future<String>> replies = new ArrayList<Future<String>>();
+      for (int i = 0; i < 32; ++i) {
+        final String url = base + "/search?q=" + ((i % 2 == 0) ? "wheels" : "water") + "&k=" + (1 + i % 3);
+        replies.add(clients.submit(new Callable<String>() {
+          public String call() throws IOException {
+            return get(url);
+          }
+        }));
+      }
+      int ok = 0;
+      for (Future<String> reply : replies)
+        if (reply.get().startsWith("200"))
+          ++ok;
+      clients.shutdown();
+      System.out.println(ok + " of 32");
+    } finally {
+      server.stop(0);
+    }
+    System.out.println();
+
+    System.out.println("Testing a log that can no longer be written, should be 503 for /add and /delete:");
+    Path tmp = Files.createTempDirectory("javapedia-server");
+    ArticleLog log = new ArticleLog(tmp.resolve("articles.log").toString(), tmp.toString());
+    SearchServer logged = new SearchServer(T, log, 0);
+    logged.start();
+    try {
+      log.close();     // every write from now on fails
+      String added = post("http://localhost:" + logged.getPort() + "/add?t=Planes", "Planes fly");
+      String deleted = post("http://localhost:" + logged.getPort() + "/delete?t=Cars", "");
+      System.out.println(added.substring(0, 3) + " " + deleted.substring(0, 3) + " " +
+                         added.substring(4, added.indexOf(':')));
+    } finally {
+      logged.stop(0);
+      Files.walk(tmp).sorted(Comparator.reverseOrder()).forEach(new java.util.function.Consumer<Path>() {
+        public void accept(Path p) {
+          p.toFile().delete();
+        }
+      });
+    }
+  }
+
+  // test helpers: return the status code, a newline, then the response body
+
+  private static String get(String url) throws IOException {
+    return request((java.net.HttpURLConnection) new java.net.URL(url).openConnection());
+  }
+
+  private static String post(String url, String body) throws IOException {
+    java.net.HttpURLConnection c = (java.net.HttpURLConnection) new java.net.URL(url).openConnection();
+    c.setRequestMethod("POST");
+    c.setDoOutput(true);
+    c.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8));
+    return request(c);
+  }
+
+  private static String request(java.net.HttpURLConnection c) throws IOException {
+    int code = c.getResponseCode();
+    InputStream in = (code < 400) ? c.getInputStream() : c.getErrorStream();
+    String body = (in == null) ? "" : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    return code + "\n" + body;
+  }
+}
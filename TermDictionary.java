@@ -0,0 +1,217 @@
+/* TermDictionary.java
+   Gives every distinct term in the corpus a dense integer id (0, 1, 2, ...)
+   the first time it is seen, so that term vectors, postings and counts can
+   be stored and compared as ints instead of Strings. The term of an id can
+   be looked up again for display, and the whole dictionary can be saved
+   with a snapshot and read back.
+
+   Terms are looked up straight from Analyzer's char buffer, so a term that
+   is already known costs no String at all. Lookups never lock: the hash
+   table is an atomic array of immutable entries that is replaced, not
+   changed in place, when it grows. Adding a term is synchronized.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class TermDictionary {
+
+  private static final TermDictionary shared = new TermDictionary();
+
+  /* Returns the dictionary used by the whole program */
+  public static TermDictionary shared() {
+    return shared;
+  }
+
+  /* Entry maps one term to its id. Entries never change once created. */
+  private static class Entry {
+    final String term;
+    final int hash;
+    final int id;
+
+    Entry(String term, int hash, int id) {
+      this.term = term;
+      this.hash = hash;
+      this.id = id;
+    }
+  }
+
+  private volatile AtomicReferenceArray<Entry> table = new AtomicReferenceArray<Entry>(1024);
+  private volatile String[] terms = new String[512];  // terms[id] is the term with that id
+  private volatile int size = 0;
+
+
+  private static int hash(char[] buf, int len) {
+    int h = 0;
+    for (int i = 0; i < len; ++i)   // same as String.hashCode
+      h = 31 * h + buf[i];
+    return h ^ (h >>> 16);
+  }
+
+  private static int hash(String term) {
+    int h = term.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean equal(String term, char[] buf, int len) {
+    if (term.length() != len)
+      return false;
+    for (int i = 0; i < len; ++i)
+      if (term.charAt(i) != buf[i])
+        return false;
+    return true;
+  }
+
+  /* lookup returns the id of the term in the first len chars of buf,
+     or -1 if the term has never been added. Never blocks.
+  */
+  public int lookup(char[] buf, int len) {
+    int h = hash(buf, len);
+    AtomicReferenceArray<Entry> tab = table;
+    int m = tab.length();
+    for (int i = h & (m - 1); ; i = (i + 1) & (m - 1)) {  // linear probing
+      Entry e = tab.get(i);
+      if (e == null)
+        return -1;
+      if (e.hash == h && equal(e.term, buf, len))
+        return e.id;
+    }
+  }
+
+  /* Same as previous, but takes the term as a String */
+  public int lookup(String term) {
+    int h = hash(term);
+    AtomicReferenceArray<Entry> tab = table;
+    int m = tab.length();
+    for (int i = h & (m - 1); ; i = (i + 1) & (m - 1)) {
+      Entry e = tab.get(i);
+      if (e == null)
+        return -1;
+      if (e.hash == h && e.term.equals(term))
+        return e.id;
+    }
+  }
+
+  /* add returns the id of the term in the first len chars of buf, giving it
+     the next free id if it is new.
+  */
+  public int add(char[] buf, int len) {
+    int id = lookup(buf, len);    // known terms never take the lock
+    if (id >= 0)
+      return id;
+    return add(new String(buf, 0, len));
+  }
+
+  /* Same as previous, but takes the term as a String */
+  public synchronized int add(String term) {
+    int id = lookup(term);        // another thread may have added it first
+    if (id >= 0)
+      return id;
+
+    id = size;
+    if (id == terms.length) {
+      String[] bigger = new String[2 * id];
+      System.arraycopy(terms, 0, bigger, 0, id);
+      terms = bigger;
+    }
+    terms[id] = term;
+
+    if (2 * (id + 1) > table.length())   // keep the table at most half full
+      grow();
+    insert(table, new Entry(term, hash(term), id));
+    size = id + 1;
+    return id;
+  }
+
+  private static void insert(AtomicReferenceArray<Entry> tab, Entry e) {
+    int m = tab.length();
+    int i = e.hash & (m - 1);
+    while (tab.get(i) != null)
+      i = (i + 1) & (m - 1);
+    tab.set(i, e);
+  }
+
+  /* grow copies every entry into a table twice the size and then publishes it */
+  private void grow() {
+    AtomicReferenceArray<Entry> old = table;
+    AtomicReferenceArray<Entry> tab = new AtomicReferenceArray<Entry>(2 * old.length());
+    for (int i = 0; i < old.length(); ++i)
+      if (old.get(i) != null)
+        insert(tab, old.get(i));
+    table = tab;
+  }
+
+  /* Returns the term with the given id */
+  public String term(int id) {
+    return terms[id];
+  }
+
+  /* Returns the number of terms in the dictionary */
+  public int size() {
+    return size;
+  }
+
+  /* write saves every term, in id order, as an int count followed by
+     each term's UTF-8 byte length and bytes
+  */
+  public void write(DataOutputStream out) throws IOException {
+    int n = size;
+    String[] t = terms;
+    out.writeInt(n);
+    for (int i = 0; i < n; ++i) {
+      byte[] b = t[i].getBytes(StandardCharsets.UTF_8);
+      out.writeInt(b.length);
+      out.write(b);
+    }
+  }
+
+  /* read adds the terms saved by write, and returns where each saved id went.
+     When the dictionary starts out empty the ids are unchanged.
+
+     @param:  buf The buffer positioned at the saved dictionary
+     @return: ids ids[i] is the current id of the term saved with id i
+  */
+  public int[] read(ByteBuffer buf) {
+    int[] ids = new int[buf.getInt()];
+    for (int i = 0; i < ids.length; ++i) {
+      byte[] b = new byte[buf.getInt()];
+      buf.get(b);
+      ids[i] = add(new String(b, StandardCharsets.UTF_8));
+    }
+    return ids;
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) throws IOException {
+    TermDictionary dict = new TermDictionary();
+
+    System.out.println("Testing add, should be 0 1 0:");
+    System.out.println(dict.add("moon") + " " + dict.add("orbit".toCharArray(), 5) + " " + dict.add("moon"));
+    System.out.println();
+
+    System.out.println("Testing lookup from a buffer, should be 1 -1:");
+    char[] buf = "orbits".toCharArray();
+    System.out.println(dict.lookup(buf, 5) + " " + dict.lookup(buf, 6));
+    System.out.println();
+
+    System.out.println("Testing growth, should find all 5000 terms and give term(4001) = t3999:");
+    for (int i = 0; i < 5000; ++i)
+      dict.add("t" + i);
+    int found = 0;
+    for (int i = 0; i < 5000; ++i)
+      if (dict.lookup("t" + i) == i + 2)
+        ++found;
+    System.out.println(found + " " + dict.term(4001));
+    System.out.println();
+
+    System.out.println("Testing write and read into a new dictionary, should be 5002 terms and t42 with id 44:");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    dict.write(new DataOutputStream(bytes));
+    TermDictionary copy = new TermDictionary();
+    copy.read(ByteBuffer.wrap(bytes.toByteArray()));
+    System.out.println(copy.size() + " terms and " + copy.term(44) + " with id " + copy.lookup("t42"));
+  }
+}
@@ -0,0 +1,307 @@
+/* TermVector.java
+   A sparse term frequency vector for a piece of text. Only the terms that
+   actually appear are stored, as their ids in the TermDictionary sorted in
+   increasing order, together with their counts. The vector's length (L2 norm)
+   is computed once when it is built, so comparing two vectors only costs a
+   sparse dot product over int ids.
+
+   An article's vector also keeps where in the text each term appears, for
+   the positional index; a search phrase's vector does not.
+ */
+
+import java.util.*;
+
+public class TermVector {
+
+  private final int[] ids;        // distinct term ids, in increasing order
+  private final int[] freqs;      // freqs[i] is the number of times term ids[i] appears
+  private final double norm;      // sqrt of the sum of squared frequencies
+  private final double logNorm;   // the same, with each frequency f weighted as 1 + log(f)
+  private final int length;       // total number of terms, counting repeats
+  private final int[] positions;  // the freqs[0] positions of ids[0] in increasing order, then those
+                                  // of ids[1], and so on; null if positions were not kept
+
+  private TermVector(int[] ids, int[] freqs, int[] positions) {
+    this.ids = ids;
+    this.freqs = freqs;
+    this.positions = positions;
+    double sum = 0;
+    double logSum = 0;
+    int total = 0;
+    for (int i = 0; i < freqs.length; ++i) {
+      sum += (double) freqs[i] * freqs[i];
+      double w = 1 + Math.log(freqs[i]);
+      logSum += w * w;
+      total += freqs[i];
+    }
+    this.norm = Math.sqrt(sum);
+    this.logNorm = Math.sqrt(logSum);
+    this.length = total;
+  }
+
+  /* of builds the term vector of an article's text using the same analysis
+     as the index. Terms not seen before are added to the shared TermDictionary.
+
+     @param:  s The text to be turned into a vector
+     @return:   The TermVector of s
+  */
+  public static TermVector of(String s) {
+    final Scratch scratch = scratches.get();
+    final TermDictionary dict = TermDictionary.shared();
+    scratch.n = 0;
+    Analyzer.forThread().analyze(s, new Analyzer.PositionConsumer() {
+      public void token(char[] buf, int len, int position) {
+        scratch.push(dict.add(buf, len), position);
+      }
+    });
+    return scratch.toVector(true);
+  }
+
+  /* ofQuery builds the term vector of a search phrase. Unlike of, it never
+     adds to the TermDictionary: a term no article contains is given its own
+     negative id (-1, -2, ...) instead, so it still counts towards the
+     vector's norm but cannot match anything.
+
+     @param:  s The search phrase
+     @return:   The TermVector of s
+  */
+  public static TermVector ofQuery(String s) {
+    final Scratch scratch = scratches.get();
+    final TermDictionary dict = TermDictionary.shared();
+    final ArrayList<String> unknown = new ArrayList<String>(0);
+    scratch.n = 0;
+    Analyzer.forThread().analyze(s, new Analyzer.TokenConsumer() {
+      public void token(char[] buf, int len) {
+        int id = dict.lookup(buf, len);
+        if (id < 0) {
+          String term = new String(buf, 0, len);
+          int j = unknown.indexOf(term);  // queries are short, so a linear scan will do
+          if (j < 0) {
+            j = unknown.size();
+            unknown.add(term);
+          }
+          id = -(j + 1);
+        }
+        scratch.push(id, 0);
+      }
+    });
+    return scratch.toVector(false);
+  }
+
+  /* Scratch counts the term ids of one text in a WordFrequencyTable and
+     remembers, for each token, which distinct term it was and where it
+     appeared. Each thread reuses its own, so building a vector only
+     allocates the vector's arrays.
+  */
+  private static class Scratch {
+    final WordFrequencyTable counts = new WordFrequencyTable(1);
+    int[] term = new int[256];       // index in counts of each token's term
+    int[] position = new int[256];   // position of each token, increasing
+    long[] sorted = new long[64];    // id in the high half and index in counts in the low half
+    int[] start = new int[64];       // where each distinct term's positions go, by index in counts
+    int n = 0;
+
+    void push(int id, int pos) {
+      if (n == term.length) {
+        term = Arrays.copyOf(term, 2 * n);
+        position = Arrays.copyOf(position, 2 * n);
+      }
+      term[n] = counts.insert(id, 0);
+      position[n++] = pos;
+    }
+
+    // sorts the distinct ids, which are far fewer than the tokens, then places
+    // each token's position after those of the terms with smaller ids
+    TermVector toVector(boolean keepPositions) {
+      int distinct = counts.size();
+      if (sorted.length < distinct) {
+        sorted = new long[Math.max(distinct, 2 * sorted.length)];
+        start = new int[sorted.length];
+      }
+      for (int i = 0; i < distinct; ++i)
+        sorted[i] = ((long) counts.id(i) << 32) | i;
+      Arrays.sort(sorted, 0, distinct);
+      int[] v = new int[distinct];
+      int[] f = new int[distinct];
+      for (int d = 0, from = 0; d < distinct; ++d) {
+        int i = (int) sorted[d];
+        v[d] = (int) (sorted[d] >> 32);
+        f[d] = counts.freq(i, 0);
+        start[i] = from;
+        from += f[d];
+      }
+      int[] p = null;
+      if (keepPositions) {
+        p = new int[n];
+        for (int t = 0; t < n; ++t)
+          p[start[term[t]]++] = position[t];
+      }
+      counts.clear();
+      n = 0;
+      return new TermVector(v, f, p);
+    }
+  }
+
+  private static final ThreadLocal<Scratch> scratches = new ThreadLocal<Scratch>() {
+    protected Scratch initialValue() {
+      return new Scratch();
+    }
+  };
+
+  /* fromIds builds a vector from distinct term ids, such as the terms of a
+     vector saved in a snapshot. The pairs are sorted by id if they are not
+     in order already.
+
+     @param:  ids   The distinct term ids
+     @param:  freqs freqs[i] is the number of times term ids[i] appears
+     @return:       The TermVector with those terms and frequencies
+  */
+  static TermVector fromIds(int[] ids, int[] freqs) {
+    return fromIds(ids, freqs, null);
+  }
+
+  /* Same as previous, with the positions of each term as positions()
+     returns them. The positions move with their terms if the pairs are
+     sorted.
+  */
+  static TermVector fromIds(int[] ids, int[] freqs, int[] positions) {
+    for (int i = 1; i < ids.length; ++i) {
+      if (ids[i - 1] > ids[i]) {
+        long[] pairs = new long[ids.length];  // id in the high half, so sorting sorts by id
+        for (int j = 0; j < ids.length; ++j)
+          pairs[j] = ((long) ids[j] << 32) | (freqs[j] & 0xffffffffL);
+        Arrays.sort(pairs);
+        if (positions != null)
+          positions = sortPositions(ids, freqs, positions, pairs);
+        for (int j = 0; j < ids.length; ++j) {
+          ids[j] = (int) (pairs[j] >> 32);
+          freqs[j] = (int) pairs[j];
+        }
+        break;
+      }
+    }
+    return new TermVector(ids, freqs, positions);
+  }
+
+  // Copies each term's run of positions to where its sorted pair now is
+  private static int[] sortPositions(int[] ids, int[] freqs, int[] positions, long[] pairs) {
+    HashMap<Integer, Integer> from = new HashMap<Integer, Integer>();
+    for (int j = 0, off = 0; j < ids.length; off += freqs[j++])
+      from.put(ids[j], off);
+    int[] sorted = new int[positions.length];
+    int to = 0;
+    for (long pair : pairs) {
+      int f = (int) pair;
+      System.arraycopy(positions, from.get((int) (pair >> 32)), sorted, to, f);
+      to += f;
+    }
+    return sorted;
+  }
+
+  /* Returns the number of distinct terms in the vector */
+  public int size() {
+    return ids.length;
+  }
+
+  /* Returns the TermDictionary id of the i-th term, negative for query terms no article contains */
+  public int termId(int i) {
+    return ids[i];
+  }
+
+  /* Returns the i-th term, or null if it is a query term no article contains */
+  public String term(int i) {
+    return (ids[i] < 0) ? null : TermDictionary.shared().term(ids[i]);
+  }
+
+  public int freq(int i) {
+    return freqs[i];
+  }
+
+  public double norm() {
+    return norm;
+  }
+
+  public double logNorm() {
+    return logNorm;
+  }
+
+  /* Returns the positions of every term, grouped by term in the order of
+     termId (freq(0) positions of the first term, then those of the second,
+     and so on) and increasing within each term, or null if they were not
+     kept. The array is shared, not copied.
+  */
+  int[] positions() {
+    return positions;
+  }
+
+  /* Returns the number of terms in the text the vector was built from */
+  public int length() {
+    return length;
+  }
+
+  /* Returns the frequency of a term, or 0 if it does not appear */
+  public int freq(String term) {
+    int id = TermDictionary.shared().lookup(term);
+    return (id < 0) ? 0 : freqOf(id);
+  }
+
+  /* Returns the frequency of the term with the given id, or 0 if it does not appear */
+  public int freqOf(int id) {
+    int i = Arrays.binarySearch(ids, id);
+    return (i < 0) ? 0 : freqs[i];
+  }
+
+  /* dot returns the dot product of two vectors. Each term of the smaller
+     vector is looked up in the larger one, so a short search phrase against
+     a long article costs only a few binary searches.
+  */
+  public double dot(TermVector other) {
+    TermVector small = (size() <= other.size()) ? this : other;
+    TermVector large = (small == this) ? other : this;
+    double sum = 0;
+    for (int i = 0; i < small.ids.length; ++i)
+      if (small.ids[i] >= 0)   // unknown query terms appear in no other vector
+        sum += (double) small.freqs[i] * large.freqOf(small.ids[i]);
+    return sum;
+  }
+
+  /* Returns the cosine similarity of two vectors, or 0 if either is empty */
+  public double cosineSimilarity(TermVector other) {
+    if (norm == 0 || other.norm == 0)
+      return 0;
+    return dot(other) / (norm * other.norm);
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) {
+    TermVector A = TermVector.of("A B");
+    TermVector B = TermVector.of("B B C C");
+    TermVector C = TermVector.of("apple banana");
+
+    System.out.println("Testing freq, should be 2 0:");
+    System.out.println(B.freq("c") + " " + B.freq("apple"));
+    System.out.println();
+
+    System.out.println("Testing dot product of \"apple banana\" and \"B B C C\", should be 0.0:");
+    System.out.println(C.dot(B));
+    System.out.println();
+
+    System.out.println("Testing cosine similarity of \"apple banana\" and itself, should be about 1.0:");
+    System.out.println(C.cosineSimilarity(TermVector.of("Banana, apple!")));
+    System.out.println();
+
+    System.out.println("Testing cosine similarity of \"A B\" (only blacklisted \"a\" dropped) and \"B B C C\", should be about 0.707:");
+    System.out.println(A.cosineSimilarity(B));
+    System.out.println();
+
+    System.out.println("Testing ofQuery with an unknown term, should be 2 terms, null apple, and about 0.316:");
+    TermVector Q = TermVector.ofQuery("zyzzyva apple zyzzyva");
+    System.out.println(Q.size() + " terms, " + Q.term(0) + " " + Q.term(1) + ", and " + Q.cosineSimilarity(C));
+    System.out.println(TermDictionary.shared().lookup("zyzzyva") + " (should be -1, the query did not add it)");
+    System.out.println();
+
+    System.out.println("Testing positions of \"B B C C\", should be [0, 1, 2, 3] grouped as b then c:");
+    System.out.println(Arrays.toString(B.positions()) + " " + B.term(0) + " " + B.term(1));
+  }
+}
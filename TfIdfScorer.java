@@ -0,0 +1,44 @@
+/* TfIdfScorer.java
+   Scores articles by TF-IDF cosine similarity (the "lnc.ltc" scheme).
+   Article terms are weighted by 1 + log(tf) and normalized by the
+   article's own length, so article weights never change as the corpus
+   grows. Query terms are also weighted by their inverse document
+   frequency, so terms found in many articles count for little.
+ */
+
+public class TfIdfScorer implements Scorer {
+
+  public String name() {
+    return "tf-idf similarity";
+  }
+
+  /* Inverse document frequency of a term found in docFreq articles */
+  static double idf(int docFreq, InvertedIndex index) {
+    if (docFreq == 0)
+      return 0;
+    return Math.log((double) index.numDocs() / docFreq);
+  }
+
+  static double logTf(int freq) {
+    return (freq == 0) ? 0 : 1 + Math.log(freq);
+  }
+
+  public double weight(int queryFreq, int termFreq, int docFreq, TermVector doc, InvertedIndex index) {
+    return logTf(queryFreq) * idf(docFreq, index) * logTf(termFreq);
+  }
+
+  public double finish(double sum, TermVector query, TermVector doc, InvertedIndex index) {
+    double queryNorm = 0;
+    for (int i = 0; i < query.size(); ++i) { // weight of each query term under the current corpus statistics
+      double w = logTf(query.freq(i)) * idf(index.docFreq(query.termId(i)), index);
+      queryNorm += w * w;
+    }
+    if (queryNorm == 0 || doc.logNorm() == 0)
+      return 0;
+    return sum / (Math.sqrt(queryNorm) * doc.logNorm());
+  }
+
+  public boolean allowsPruning() {
+    return true;
+  }
+}
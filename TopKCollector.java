@@ -0,0 +1,157 @@
+/* TopKCollector.java
+   Keeps the k best (doc id, score) pairs seen so far in a fixed-size
+   min-heap, so collecting matches needs O(k) memory no matter how many
+   articles match. The root of the heap is the worst of the k, and is
+   replaced whenever a better pair comes along. Scores and doc ids are
+   kept in primitive arrays, so collecting allocates nothing.
+ */
+
+public class TopKCollector {
+
+  private final int[] docs;
+  private final double[] scores;
+  private int next = 0;            // number of pairs in the heap
+
+  public TopKCollector(int k) {
+    if (k < 1)
+      throw new IllegalArgumentException("k must be at least 1");
+    docs = new int[k];
+    scores = new double[k];
+  }
+
+  /* Functions to move up and down tree as array */
+
+  private int parent(int i) { return (i-1) / 2; }
+  private int lchild(int i) { return 2 * i + 1; }
+  private int rchild(int i) { return 2 * i + 2; }
+
+  /* Returns true if pair i ranks below pair j: a lower score, or the same
+     score and a larger doc id, so that results are repeatable.
+  */
+  private boolean worse(int i, int j) {
+    if (scores[i] != scores[j])
+      return scores[i] < scores[j];
+    return docs[i] > docs[j];
+  }
+
+  private boolean worse(double score, int doc, int j) {
+    if (score != scores[j])
+      return score < scores[j];
+    return doc > docs[j];
+  }
+
+  private void swap(int i, int j) {
+    int d = docs[i];
+    docs[i] = docs[j];
+    docs[j] = d;
+    double s = scores[i];
+    scores[i] = scores[j];
+    scores[j] = s;
+  }
+
+  public int size() {
+    return next;
+  }
+
+  public boolean isEmpty() {
+    return next == 0;
+  }
+
+  /* Returns the score a new pair has to beat once the collector is full */
+  public double minScore() {
+    return (next < docs.length) ? Double.NEGATIVE_INFINITY : scores[0];
+  }
+
+  /* Offers a pair to the collector. It is kept if the collector is not
+     full yet, or if it beats the worst pair kept so far.
+
+     @param: doc   The doc id of the article
+     @param: score The article's score
+  */
+  public void collect(int doc, double score) {
+    if (next < docs.length) {    // not full: insert at the next leaf and sift up
+      docs[next] = doc;
+      scores[next] = score;
+      int i = next++;
+      while (i > 0 && worse(i, parent(i))) {
+        swap(i, parent(i));
+        i = parent(i);
+      }
+    }
+    else if (!worse(score, doc, 0)) {
+      docs[0] = doc;              // replace the worst pair and sift it down
+      scores[0] = score;
+      siftDown(0);
+    }
+  }
+
+  private void siftDown(int i) {
+    while (lchild(i) < next) {
+      int c = lchild(i);
+      if (rchild(i) < next && worse(rchild(i), c))
+        c = rchild(i);
+      if (!worse(c, i))
+        return;
+      swap(i, c);
+      i = c;
+    }
+  }
+
+  /* Adds every pair kept by another collector, used to merge partitions */
+  public void collectAll(TopKCollector other) {
+    for (int i = 0; i < other.next; ++i)
+      collect(other.docs[i], other.scores[i]);
+  }
+
+  /* drain empties the collector into the given arrays, best pair first.
+
+     @param:  docsOut   Array receiving the doc ids
+     @param:  scoresOut Array receiving the scores
+     @return: n         The number of pairs written
+  */
+  public int drain(int[] docsOut, double[] scoresOut) {
+    int n = next;
+    while (next > 0) {        // repeatedly remove the worst pair into the back of the output
+      --next;
+      docsOut[next] = docs[0];
+      scoresOut[next] = scores[0];
+      docs[0] = docs[next];
+      scores[0] = scores[next];
+      siftDown(0);
+    }
+    return n;
+  }
+
+
+  /* Main method with unit tests */
+  public static void main(String[] args) {
+    TopKCollector top = new TopKCollector(3);
+    double[] S = { 0.5, 0.1, 0.9, 0.3, 0.7, 0.7, 0.2 };
+    for (int i = 0; i < S.length; ++i)
+      top.collect(i, S[i]);
+
+    System.out.println("Testing minScore, should be 0.7:");
+    System.out.println(top.minScore());
+    System.out.println();
+
+    System.out.println("Testing drain, should be 2=0.9 4=0.7 5=0.7:");
+    int[] docs = new int[3];
+    double[] scores = new double[3];
+    int n = top.drain(docs, scores);
+    for (int i = 0; i < n; ++i)
+      System.out.print(docs[i] + "=" + scores[i] + " ");
+    System.out.println();
+    System.out.println();
+
+    System.out.println("Testing collectAll of two partitions, should be 9=9.0 8=8.0 7=7.0:");
+    TopKCollector a = new TopKCollector(3);
+    TopKCollector b = new TopKCollector(3);
+    for (int i = 0; i < 10; ++i)
+      ((i % 2 == 0) ? a : b).collect(i, i);
+    a.collectAll(b);
+    n = a.drain(docs, scores);
+    for (int i = 0; i < n; ++i)
+      System.out.print(docs[i] + "=" + scores[i] + " ");
+    System.out.println();
+  }
+}
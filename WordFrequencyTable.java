@@ -1,46 +1,52 @@
 /* WordFrequencyTable.java
-   A class that inserts the words of two documents into a separate-chaining hash table,
-   and computes the  cosine similarity between the two vocabularies.
+   A class that counts the words of one or more documents in an open-addressing
+   hash table, and computes the cosine similarity between two of the vocabularies.
    Author: Jessica McAloon (mcaloonj@bu.edu)
- */
 
-public class WordFrequencyTable{
+   Words are counted by their TermDictionary id, so the table holds only ints:
+   slot s holds keys[s] and its frequency in document d at counts[s * numDocs + d].
+   Collisions are resolved by linear probing, and the table doubles once it is
+   half full. clear() empties the table without freeing its arrays, so one
+   table can be reused for every document without producing garbage; each
+   thread's TermVector scratch keeps one for counting the terms of a text.
+ */
 
-  /* Node class stores each word along with its frequency
-  in each document, taking on the form (string, [frequency in doc 0, frequency in doc 1]).
+import java.util.*;
 
-  @param word: The term to be inserted
-  @param next: The head of the linked list that the node is being appended to (when multiple
-                terms map to the same hash value)
+public class WordFrequencyTable{
 
-  The node "next2" represents the head of the master list of all words that have been
-  inserted into the table.
-  */
-  private class Node{
+  private static final int INITIAL_M = 64;  // starting number of slots, always a power of 2
+  private static final int EMPTY = Integer.MIN_VALUE;  // key of an empty slot, never a term id
 
-    String word;
-    int[] wordFreq = new int[2];
-    Node next;
-    Node next2;
+  private final int numDocs;    // number of documents counted side by side
 
-    Node (String word, Node next){
-      this.word = word;
-      this.next = next;
-      this.next2 = null;
-    }
+  private int [] keys;          // term id in each slot, EMPTY if none
+  private int [] counts;        // counts[s * numDocs + d] is the frequency of keys[s] in document d
+  private int [] order;         // slots in the order their ids were first inserted
+  private int [] indexOf;       // indexOf[s] is the position of slot s in order
+  private int size = 0;         // number of distinct ids
+  private int M;
 
-    Node (String word){
-      this.word = word;
-      this.next = null;
-      this.next2 = null;
-    }
+  public WordFrequencyTable(){
+    this(2);
   }
 
-  private final int M = 101;
-
-  Node [] T = new Node[M];
+  /* @param: numDocs The number of documents whose words will be counted */
+  public WordFrequencyTable(int numDocs){
+    if (numDocs < 1)
+      throw new IllegalArgumentException("numDocs must be at least 1");
+    this.numDocs = numDocs;
+    allocate(INITIAL_M);
+  }
 
-  Node head = null;
+  private void allocate(int m){
+    M = m;
+    keys = new int[m];
+    Arrays.fill(keys, EMPTY);
+    counts = new int[m * numDocs];
+    order = new int[m / 2];
+    indexOf = new int[m];
+  }
 
   /* Makes an array of string words from a string so that they can be inserted
      @param:  doc The string to be broken up into words
@@ -53,138 +59,154 @@ public class WordFrequencyTable{
     return S;
   }
 
-  /* Inserts a word into the Word Frequency Table. Calls insertHelper to manipulate
-     the linked list at the index that the word hashes to.
-     @param: word   The string to be inserted
-     @param: docNum The integer (0 or 1) representing document that the word is from
+  /* Returns the first slot to probe for a term id. Ids are dense, so they
+     are mixed first to spread runs of neighbouring ids.
   */
-
-  public void insert(String word, int docNum) {
-    boolean wasMember = member(word);   //checks if word was already in table before this insertion
-    T[hash(word)] = insertHelper(word, T[hash(word)], docNum);
-
-    if (!wasMember){  //if word wasn't already in table, insert it at the front of the master list
-      Node temp = head;
-      head = new Node (word, head);
-      head.wordFreq[docNum] = 1;
-      head.next2 = temp;
-    }
-    else{     //if it was in the table, just increase its wordFreq in the master list
-      Node q;
-      for (q = head; q != null; q = q.next){
-        if (q.word.compareTo(word) == 0)
-          ++q.wordFreq[docNum];
-      }
-    }
+  private int home(int id){
+    int h = id * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & (M - 1);
   }
 
-  /* insertHelper either:
-        1. creates a new node with the word if it hashes to an index with no linked list yet
-        2. increases the word frequency of the word if the word is already in the
-           linked list at that index
-        3. inserts the word at the end of the linked list because the word has the same
-           hash value as another word, but is not already in the linked list
+  /* Inserts a term id into the Word Frequency Table, or increases its
+     frequency if it is already there.
+     @param:  id     The TermDictionary id of the word (negative ids, as
+                     TermVector.ofQuery gives unknown words, are allowed)
+     @param:  docNum The integer (0 to numDocs - 1) representing document that the word is from
+     @return: i      The id's index in insertion order (see id and freq)
+  */
+  public int insert(int id, int docNum) {
+    int s = home(id);
+    while (keys[s] != EMPTY && keys[s] != id)
+      s = (s + 1) & (M - 1);           // linear probing
+    if (keys[s] == EMPTY)
+      s = claim(s, id);
+    ++counts[s * numDocs + docNum];
+    return indexOf[s];
+  }
 
+  /* Same as previous, but takes the word itself, which is added to the
+     shared TermDictionary if it is new
+  */
+  public void insert(String word, int docNum) {
+    insert(TermDictionary.shared().add(word), docNum);
+  }
 
-     @param:  word   The string to be inserted
-     @param:  p      The node or list of nodes at the index the word hashes to (null if none)
-     @param:  docNum The integer (0 or 1) representing document that the word is from
-     @return: p      The new node or list of nodes at the appropriate index
+  /* claim stores a new id in empty slot s, growing the table first if it is
+     half full. Returns the slot the id ended up in.
   */
+  private int claim(int s, int id){
+    if (size + 1 > M / 2){
+      grow();
+      s = home(id);
+      while (keys[s] != EMPTY)
+        s = (s + 1) & (M - 1);
+    }
+    keys[s] = id;
+    indexOf[s] = size;
+    order[size++] = s;
+    return s;
+  }
 
-  private Node insertHelper(String word, Node p, int docNum){
-    if (p == null){  //if it hashes to an empty node, create a new node with the word
-      p = new Node(word);
-      p.wordFreq[docNum] = 1;
-      return p;
+  /* grow doubles the number of slots and moves every id to its new slot */
+  private void grow(){
+    int [] oldKeys = keys;
+    int [] oldCounts = counts;
+    int [] oldOrder = order;
+    int n = size;
+    allocate(2 * M);
+    for (int i = 0; i < n; ++i){     // reinsert in the original order so iteration order is kept
+      int old = oldOrder[i];
+      int s = home(oldKeys[old]);
+      while (keys[s] != EMPTY)
+        s = (s + 1) & (M - 1);
+      keys[s] = oldKeys[old];
+      System.arraycopy(oldCounts, old * numDocs, counts, s * numDocs, numDocs);
+      order[i] = s;
+      indexOf[s] = i;
     }
-    else{           //if it hashes to a non-empty node
-      Node q;
-      for (q = p; q != null; q = q.next){
-        if (q.word.compareTo(word) == 0){ // if word is already in the linked list, just increase its wordFreq
-          ++q.wordFreq[docNum];
-          return p;
-        }
-        else if (q.next == null){  // otherwise, insert word at end of LL
-          q.next = new Node(word);
-          q.wordFreq[docNum] = 1;
-          return p;
-        }
-
-      }
+  }
+
+  /* clear removes every id, keeping the arrays for reuse. Only the slots
+     that were used are reset, so clearing costs O(number of distinct ids).
+  */
+  public void clear(){
+    for (int i = 0; i < size; ++i){
+      int s = order[i];
+      keys[s] = EMPTY;
+      Arrays.fill(counts, s * numDocs, (s + 1) * numDocs, 0);
     }
-    return p;
+    size = 0;
+    pointer = -1;
   }
 
+  /* Returns the number of distinct words in the table */
+  public int size(){
+    return size;
+  }
 
-  Node pointer = head; // pointer to master list
+  /* Returns the term id of the i-th distinct word, in the order words were first inserted */
+  public int id(int i){
+    return keys[order[i]];
+  }
 
-  /* Returns length of linked list
-     @param:  p      Head of linked list
-     @return: count  The number of nodes in the linked list
-  */
-  private int length(Node p){
-    int count = 0;
-    for (Node q = p; q != null; q = q.next)
-      ++ count;
-    return count;
+  /* Returns the i-th distinct word, or null if its id is not in the TermDictionary */
+  public String word(int i){
+    int id = id(i);
+    return (id < 0) ? null : TermDictionary.shared().term(id);
   }
 
+  /* Returns the frequency of the i-th distinct word in a document */
+  public int freq(int i, int docNum){
+    return counts[order[i] * numDocs + docNum];
+  }
 
-  /* Make word frequency vector for a document, with a count for each
-     word in the master word list
+  /* Returns the frequency of a word in a document, or 0 if it is not in the table */
+  public int freq(String word, int docNum){
+    int s = slot(TermDictionary.shared().lookup(word));
+    return (s < 0) ? 0 : counts[s * numDocs + docNum];
+  }
 
-     @param:  p           Head of master list
-     @param:  docNum      The integer (0 or 1) representing document that the vector is associated with
-     @return: freqVector  Array of ints representing count of each word
-  */
-  private int [] makeVector(Node p, int docNum){
-    int [] freqVector = new int [length(head)]; // vector is the same length as as the master word list
-    int i = 0;
-    for (Node q = p; q != null; q = q.next){ // iterate through master list, add each wordFreq to the vector
-      freqVector[i] = q.wordFreq[docNum];
-      ++ i;
-    }
-    return freqVector;
+  /* Returns the slot holding term id, or -1 */
+  private int slot(int id){
+    if (id == EMPTY)
+      return -1;
+    for (int s = home(id); keys[s] != EMPTY; s = (s + 1) & (M - 1))
+      if (keys[s] == id)
+        return s;
+    return -1;
   }
 
-  /* Returns double representing cosine similarity between two word frequency vectors */
+
+  /* Returns double representing cosine similarity between the word frequency
+     vectors of documents 0 and 1 */
   double cosineSimilarity(){
-    int [] A = makeVector(head, 0); // make wordFreq vector of document 0
-    int [] B = makeVector(head, 1); // make wordFreq vector of document 1
-    double result = dot(A,B)/((Math.sqrt(dot(A,A)))*(Math.sqrt(dot(B,B)))); //calculate cosine similarity of vectors
-    return result;
+    return cosineSimilarity(0, 1);
   }
 
-
-/* Returns double representing the dot product of 2 vectors*/
-  private double dot(int [] A, int [] B){ //calculates dot product
-    double sum = 0;
-    for (int i = 0; i < A.length; ++ i){ //iterates through 2 vectors, takes the product of 2 indexes, adds it to running sum
-      double product = A[i]*B[i];
-      sum += product;
+  /* Same as previous, for any two documents. The dot products are summed
+     straight from the count arrays, without building vectors first.
+  */
+  double cosineSimilarity(int docA, int docB){
+    double ab = 0, aa = 0, bb = 0;
+    for (int i = 0; i < size; ++i){
+      int base = order[i] * numDocs;
+      double a = counts[base + docA];
+      double b = counts[base + docB];
+      ab += a * b;
+      aa += a * a;
+      bb += b * b;
     }
-    return sum;
+    return ab / (Math.sqrt(aa) * Math.sqrt(bb));
   }
 
 
-/* lookup calls lookupHelper to see if a word already has a node in the table
+/* lookup checks if a word is already in the table
    @param: word The string to search for
    @return: word if found, null otherwise
 */
   public String lookup(String word) {
-    return lookupHelper (word, T[hash(word)]);
-
-  }
-
-  private String lookupHelper(String word, Node t) {
-    if (t == null)
-      return null;
-    for (Node p = t; p != null;p = p.next){
-      if (p.word.compareTo(word) == 0)
-        return p.word;
-    }
-    return null;
+    int s = slot(TermDictionary.shared().lookup(word));
+    return (s < 0) ? null : word;
   }
 
  /* returns true if string is in table, returns false otherwise */
@@ -193,21 +215,6 @@ public class WordFrequencyTable{
   }
 
 
-  /* hash function takes sum of chars in a string and applies % M to it
-     @param: word The string to be hashed
-     @return: integer hash value
-  */
-  private int hash (String word){
-    char ch[];
-    ch = word.toCharArray();
-    int titlelength = word.length();
-
-    int i, sum;
-    for (sum=0, i=0; i < word.length(); i++)
-      sum += ch[i];
-    return sum % M;
-  }
-
   /*initialize inserts a string array into the table, useful for debugging */
   public void initialize(String [] A, int docNum) {
     for(int i = 0; i < A.length; ++i)
@@ -215,35 +222,22 @@ public class WordFrequencyTable{
   }
 
 
-  /*iterator methods for debugging. Prints out the contents of the master list using next2 pointer */
+  /*iterator methods for debugging. Lists the words from the most recently
+    inserted to the first inserted */
+  int pointer = -1;
+
    public void reset(){
-    pointer = head;
+    pointer = size - 1;
   }
 
   public boolean hasNext(){
-    return (pointer != null);
+    return (pointer >= 0);
   }
 
   public String next(){
-    Node q = pointer;
-    pointer = pointer.next2;
-    return q.word;
+    return word(pointer--);
   }
 
-  /* Blacklist common words that aren't used in cosine similarity calculation */
-  private final String [] blackList = { "the", "of", "and", "a", "to", "in", "is",
-    "you", "that", "it", "he", "was", "for", "on", "are", "as", "with",
-    "his", "they", "i", "at", "be", "this", "have", "from", "or", "one",
-    "had", "by", "word", "but", "not", "what", "all", "were", "we", "when",
-    "your", "can", "said", "there", "use", "an", "each", "which", "she",
-    "do", "how", "their", "if", "will", "up", "other", "about", "out", "many",
-    "then", "them", "these", "so", "some", "her", "would", "make", "like",
-    "him", "into", "time", "has", "look", "two", "more", "write", "go", "see",
-    "number", "no", "way", "could", "people",  "my", "than", "first", "water",
-    "been", "call", "who", "oil", "its", "now", "find", "long", "down", "day",
-    "did", "get", "come", "made", "may", "part" };
-
-
   /* Main method with unit tests */
   public static void main (String [] args){
     WordFrequencyTable Table = new WordFrequencyTable();
@@ -252,20 +246,15 @@ public class WordFrequencyTable{
     String [] B = Table.makeWordList("A A B B");
 
     System.out.println("Testing Insert, should be:");
-    System.out.println("Location 97: a [1, 2]\nLocation 98: b [1, 2]\n");
+    System.out.println("a [1, 2]\nb [1, 2]\n");
     Table.initialize(A,0);
     Table.initialize(B,1);
-    Node [] list = Table.T;
-    for (int i = 0; i < list.length; ++i){
-      if (list[i] != null){
-        for (Node p = list[i]; p != null; p = p.next){
-          System.out.println( "Location " + Table.hash(p.word)+": "+ p.word +" ["+ p.wordFreq[0] +", "+p.wordFreq[1] +"]");
-        }
-      }
+    for (int i = 0; i < Table.size(); ++i){
+      System.out.println(Table.word(i) +" ["+ Table.freq(i, 0) +", "+Table.freq(i, 1) +"]");
     }
 
     System.out.println();
-    System.out.println("Testing iterator and next2 pointer, should be:");
+    System.out.println("Testing iterator, should be:");
     System.out.println("b a");
     Table.reset();
     while(Table.hasNext()) {
@@ -292,6 +281,27 @@ public class WordFrequencyTable{
     System.out.println(Table2.cosineSimilarity());
     System.out.println();
 
+    System.out.println("Testing 3 documents, cosine similarity of documents 0 and 2 should be about 0.707:");
+    WordFrequencyTable Table3 = new WordFrequencyTable(3);
+    Table3.initialize(Table3.makeWordList("x y"), 0);
+    Table3.initialize(Table3.makeWordList("z"), 1);
+    Table3.initialize(Table3.makeWordList("x"), 2);
+    System.out.println(Table3.cosineSimilarity(0, 2));
+    System.out.println();
+
+    System.out.println("Testing growth and clear, should be 1003 0 1 0 (1000 more words, cleared, then reused for \"a\"):");
+    for (int i = 0; i < 1000; ++i)
+      Table3.insert("w" + i, 1);
+    System.out.print(Table3.size() + " ");
+    Table3.clear();
+    System.out.print(Table3.size() + " ");
+    Table3.insert(TermDictionary.shared().lookup("a"), 0);
+    System.out.println(Table3.freq("a", 0) + " " + Table3.freq("x", 0));
+    System.out.println();
 
+    System.out.println("Testing ids, should be 0 1 0, then 2 and -1 (count of the first id, the second id):");
+    WordFrequencyTable Table4 = new WordFrequencyTable(1);
+    System.out.println(Table4.insert(7, 0) + " " + Table4.insert(-1, 0) + " " + Table4.insert(7, 0) + ", then " +
+                       Table4.freq(0, 0) + " and " + Table4.id(1));
   }
 }
@@ -0,0 +1,164 @@
+/* App.java
+   Javapedia's classes live in the default package, which a class in a
+   named package cannot import, and JMH requires benchmarks to be in a named
+   package. App reaches the methods the benchmarks call through method
+   handles instead. The handles are static final, so the JIT compiles each
+   call like a direct one and the benchmarks measure Javapedia, not
+   reflection. Javapedia objects are passed around as Object.
+ */
+
+package bench;
+
+import java.lang.invoke.*;
+import java.util.Iterator;
+
+final class App {
+
+  private static final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+  private static final MethodHandle loadCorpus;
+  private static final MethodHandle newDatabaseIterator;
+  private static final MethodHandle fingerprint;
+  private static final MethodHandle writeSnapshot;
+  private static final MethodHandle readSnapshot;
+  private static final MethodHandle newTable;
+  private static final MethodHandle initialize;
+  private static final MethodHandle lookupTitle;
+  private static final MethodHandle insert;
+  private static final MethodHandle delete;
+  private static final MethodHandle getCache;
+  private static final MethodHandle clearCache;
+  private static final MethodHandle phraseSearch;
+  private static final MethodHandle newArticle;
+  private static final MethodHandle getTitle;
+  private static final MethodHandle setSimilarity;
+  private static final MethodHandle newMaxHeap;
+  private static final MethodHandle heapInsert;
+  private static final MethodHandle heapGetMax;
+
+  static {
+    try {
+      Class<?> article = Class.forName("Article");
+      Class<?> articles = Class.forName("[LArticle;");
+      Class<?> table = Class.forName("ArticleHashTable");
+      Class<?> anyTable = Class.forName("ArticleTable");
+      Class<?> cache = Class.forName("QueryCache");
+      Class<?> heap = Class.forName("MaxHeap");
+      Class<?> loader = Class.forName("CorpusLoader");
+      Class<?> snapshot = Class.forName("CorpusSnapshot");
+
+      loadCorpus = generic(lookup.findStatic(loader, "load", MethodType.methodType(articles, String.class)));
+      newDatabaseIterator = generic(lookup.findConstructor(Class.forName("DatabaseIterator"),
+                                                           MethodType.methodType(void.class, String.class)));
+      fingerprint = lookup.findStatic(snapshot, "fingerprint", MethodType.methodType(long.class, String.class));
+      writeSnapshot = generic(lookup.findStatic(snapshot, "write",
+                                                MethodType.methodType(void.class, String.class, long.class, articles)));
+      readSnapshot = generic(lookup.findStatic(snapshot, "read",
+                                               MethodType.methodType(articles, String.class, long.class)));
+      newTable = generic(lookup.findConstructor(table, MethodType.methodType(void.class)));
+      initialize = generic(lookup.findVirtual(table, "initialize", MethodType.methodType(void.class, articles)));
+      lookupTitle = generic(lookup.findVirtual(table, "lookup", MethodType.methodType(article, String.class)));
+      insert = generic(lookup.findVirtual(table, "insert", MethodType.methodType(void.class, article)));
+      delete = generic(lookup.findVirtual(table, "delete", MethodType.methodType(void.class, String.class)));
+      getCache = generic(lookup.findVirtual(table, "getCache", MethodType.methodType(cache)));
+      clearCache = generic(lookup.findVirtual(cache, "clear", MethodType.methodType(void.class)));
+      phraseSearch = generic(lookup.findStatic(Class.forName("Javapedia"), "phraseSearch",
+                                               MethodType.methodType(String.class, String.class, anyTable)));
+      newArticle = generic(lookup.findConstructor(article, MethodType.methodType(void.class, String.class, String.class)));
+      getTitle = generic(lookup.findVirtual(article, "getTitle", MethodType.methodType(String.class)));
+      setSimilarity = generic(lookup.findSetter(article, "cosineSimilarity", double.class));
+      newMaxHeap = generic(lookup.findConstructor(heap, MethodType.methodType(void.class)));
+      heapInsert = generic(lookup.findVirtual(heap, "insert", MethodType.methodType(void.class, article)));
+      heapGetMax = generic(lookup.findVirtual(heap, "getMax", MethodType.methodType(article)));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /* Replaces every Javapedia type in a handle's signature with Object */
+  private static MethodHandle generic(MethodHandle h) {
+    MethodType t = h.type();
+    for (int i = 0; i < t.parameterCount(); ++i)
+      if (!t.parameterType(i).isPrimitive() && t.parameterType(i) != String.class)
+        t = t.changeParameterType(i, Object.class);
+    if (!t.returnType().isPrimitive() && t.returnType() != String.class)
+      t = t.changeReturnType(Object.class);
+    return h.asType(t);
+  }
+
+  private App() {
+  }
+
+  // Each wrapper below rethrows whatever the Javapedia method throws.
+
+  static Object[] loadCorpus(String path) throws Throwable {
+    return (Object[]) (Object) loadCorpus.invokeExact(path);
+  }
+
+  @SuppressWarnings("unchecked")
+  static Iterator<Object> databaseIterator(String path) throws Throwable {
+    return (Iterator<Object>) (Object) newDatabaseIterator.invokeExact(path);
+  }
+
+  static long fingerprint(String path) throws Throwable {
+    return (long) fingerprint.invokeExact(path);
+  }
+
+  static void writeSnapshot(String path, long fp, Object[] articles) throws Throwable {
+    writeSnapshot.invokeExact(path, fp, (Object) articles);
+  }
+
+  static Object[] readSnapshot(String path, long fp) throws Throwable {
+    return (Object[]) (Object) readSnapshot.invokeExact(path, fp);
+  }
+
+  static Object newTable(Object[] articles) throws Throwable {
+    Object t = (Object) newTable.invokeExact();
+    initialize.invokeExact(t, (Object) articles);
+    return t;
+  }
+
+  static Object lookup(Object table, String title) throws Throwable {
+    return (Object) lookupTitle.invokeExact(table, title);
+  }
+
+  static void insert(Object table, Object article) throws Throwable {
+    insert.invokeExact(table, article);
+  }
+
+  static void delete(Object table, String title) throws Throwable {
+    delete.invokeExact(table, title);
+  }
+
+  static void clearCache(Object table) throws Throwable {
+    clearCache.invokeExact((Object) getCache.invokeExact(table));
+  }
+
+  static String phraseSearch(String phrase, Object table) throws Throwable {
+    return (String) phraseSearch.invokeExact(phrase, table);
+  }
+
+  static Object newArticle(String title, String body) throws Throwable {
+    return (Object) newArticle.invokeExact(title, body);
+  }
+
+  static String title(Object article) throws Throwable {
+    return (String) getTitle.invokeExact(article);
+  }
+
+  static void setSimilarity(Object article, double score) throws Throwable {
+    setSimilarity.invokeExact(article, score);
+  }
+
+  static Object newMaxHeap() throws Throwable {
+    return (Object) newMaxHeap.invokeExact();
+  }
+
+  static void heapInsert(Object heap, Object article) throws Throwable {
+    heapInsert.invokeExact(heap, article);
+  }
+
+  static Object heapGetMax(Object heap) throws Throwable {
+    return (Object) heapGetMax.invokeExact(heap);
+  }
+}
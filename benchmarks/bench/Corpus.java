@@ -0,0 +1,28 @@
+/* Corpus.java
+   The fixture shared by the benchmarks: the articles in the bundled
+   articles/ directory (or the directory named by the javapedia.articles
+   system property), loaded once per run and inserted into an
+   ArticleHashTable.
+ */
+
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+public class Corpus {
+
+  static final String PATH = System.getProperty("javapedia.articles", "articles/");
+
+  Object[] articles;
+  Object table;
+
+  @Setup(Level.Trial)
+  public void load() throws Throwable {
+    articles = App.loadCorpus(PATH);
+    if (articles.length == 0)
+      throw new IllegalStateException("no articles in " + PATH +
+                                      ", run from the repository root or set -Djavapedia.articles");
+    table = App.newTable(articles);
+  }
+}
@@ -0,0 +1,41 @@
+/* HeapBenchmark.java
+   Measures MaxHeap: inserting 1000 articles with seeded random scores and
+   then removing them all with getMax, as a search used to rank matches.
+ */
+
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeapBenchmark {
+
+  private Object[] articles;
+
+  @Setup(Level.Trial)
+  public void scoreArticles() throws Throwable {
+    Random random = new Random(42);
+    articles = new Object[1000];
+    for (int i = 0; i < articles.length; ++i) {
+      articles[i] = App.newArticle("Article " + i, "");
+      App.setSimilarity(articles[i], random.nextDouble());
+    }
+  }
+
+  @Benchmark
+  public void insertThenGetMax(Blackhole bh) throws Throwable {
+    Object heap = App.newMaxHeap();
+    for (Object a : articles)
+      App.heapInsert(heap, a);
+    for (int i = 0; i < articles.length; ++i)
+      bh.consume(App.heapGetMax(heap));
+  }
+}
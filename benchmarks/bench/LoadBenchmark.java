@@ -0,0 +1,54 @@
+/* LoadBenchmark.java
+   Measures reading the whole articles directory: one file at a time with
+   DatabaseIterator, in parallel with CorpusLoader, and from a snapshot
+   written before the run. Building the hash table and index is not included.
+ */
+
+package bench;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+  private File snapshot;
+  private long fingerprint;
+
+  @Setup(Level.Trial)
+  public void writeSnapshot() throws Throwable {
+    snapshot = File.createTempFile("javapedia", ".snapshot");
+    fingerprint = App.fingerprint(Corpus.PATH);
+    App.writeSnapshot(snapshot.getPath(), fingerprint, App.loadCorpus(Corpus.PATH));
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteSnapshot() {
+    snapshot.delete();
+  }
+
+  @Benchmark
+  public void databaseIterator(Blackhole bh) throws Throwable {
+    Iterator<Object> it = App.databaseIterator(Corpus.PATH);
+    while (it.hasNext())
+      bh.consume(it.next());
+  }
+
+  @Benchmark
+  public Object[] corpusLoader() throws Throwable {
+    return App.loadCorpus(Corpus.PATH);
+  }
+
+  @Benchmark
+  public Object[] snapshotRead() throws Throwable {
+    return App.readSnapshot(snapshot.getPath(), fingerprint);
+  }
+}
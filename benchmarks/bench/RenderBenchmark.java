@@ -0,0 +1,35 @@
+/* RenderBenchmark.java
+   Measures Article.toString, which formats an article for display, on the
+   longest article in the corpus and on a typical one.
+ */
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+  @Param({"longest", "median"})
+  public String article;
+
+  private Object a;
+
+  @Setup(Level.Trial)
+  public void pickArticle(Corpus corpus) {
+    Object[] sorted = corpus.articles.clone();
+    java.util.Arrays.sort(sorted, (x, y) -> Integer.compare(x.toString().length(), y.toString().length()));
+    a = article.equals("longest") ? sorted[sorted.length - 1] : sorted[sorted.length / 2];
+  }
+
+  @Benchmark
+  public String render() {
+    return a.toString();
+  }
+}
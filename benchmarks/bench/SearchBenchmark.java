@@ -0,0 +1,43 @@
+/* SearchBenchmark.java
+   Measures Javapedia.phraseSearch, including rendering the results, for a
+   short and a long search phrase. "uncached" empties the query cache before
+   every search, so each call does the full search; "cached" repeats the
+   same phrase and measures a cache hit.
+ */
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+
+  @Param({"short", "long"})
+  public String queryLength;
+
+  private String phrase;
+
+  @Setup(Level.Trial)
+  public void pickPhrase() {
+    phrase = queryLength.equals("short") ? "space planets moon" :
+      "history of the roman empire and its wars with carthage in the mediterranean " +
+      "including the punic wars hannibal scipio africanus and the destruction of the city";
+  }
+
+  @Benchmark
+  public String uncached(Corpus corpus) throws Throwable {
+    App.clearCache(corpus.table);
+    return App.phraseSearch(phrase, corpus.table);
+  }
+
+  @Benchmark
+  public String cached(Corpus corpus) throws Throwable {
+    return App.phraseSearch(phrase, corpus.table);
+  }
+}
@@ -0,0 +1,55 @@
+/* TableBenchmark.java
+   Measures ArticleHashTable.lookup for titles that are and are not in the
+   table, and an insert followed by a delete of the same article, which
+   leaves the table (and its index) the size it started at. Titles are
+   picked by a seeded generator so every run looks up the same sequence.
+ */
+
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TableBenchmark {
+
+  private String[] titles;
+  private String[] missing;
+  private Object article;
+  private int i = 0;
+
+  @Setup(Level.Trial)
+  public void pickTitles(Corpus corpus) throws Throwable {
+    Random random = new Random(42);
+    titles = new String[1024];
+    missing = new String[1024];
+    for (int j = 0; j < titles.length; ++j) {
+      Object a = corpus.articles[random.nextInt(corpus.articles.length)];
+      titles[j] = App.title(a);
+      missing[j] = titles[j] + " (disambiguation)";
+    }
+    article = App.newArticle("Benchmark article", "Astronauts orbit the Moon in a spacecraft\n");
+  }
+
+  @Benchmark
+  public Object lookupHit(Corpus corpus) throws Throwable {
+    return App.lookup(corpus.table, titles[i++ & 1023]);
+  }
+
+  @Benchmark
+  public Object lookupMiss(Corpus corpus) throws Throwable {
+    return App.lookup(corpus.table, missing[i++ & 1023]);
+  }
+
+  @Benchmark
+  public void insertDelete(Corpus corpus) throws Throwable {
+    App.insert(corpus.table, article);
+    App.delete(corpus.table, "Benchmark article");
+  }
+}